@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a script of gitlet commands in one process, reading the repository
+ * state once instead of once per command, and saving it once at the end
+ * instead of after each command. Each line of the script holds one
+ * command, whose arguments are separated by blanks and may be quoted as in
+ * the shell: with '...', taken literally, or "...", inside which a
+ * backslash escapes the next character. Blank lines and lines starting
+ * with '#' are skipped. The line "checkpoint" saves the state there too,
+ * so a script that crashes loses only what followed.
+ *
+ * After the output of each command, a status line "[N] ok" or
+ * "[N] error: MESSAGE" is printed, N being the line number of the command.
+ * A command that fails may have changed part of the state before failing,
+ * so a copy of the state is taken before each command and put back if it
+ * fails, and the script goes on. Files it wrote or deleted stay so.
+ *
+ * @author Siyan Shen
+ */
+class Batch {
+
+    /** Option of gitlet.Main that runs a script. */
+    static final String OPTION = "--batch";
+
+    /** Command that saves the state in the middle of a script. */
+    static final String CHECKPOINT = "checkpoint";
+
+    /** Run the commands in SCRIPT, printing their output and status. */
+    static void run(Reader script) throws IOException {
+        BufferedReader in = new BufferedReader(script);
+        Gitlet g = Main.read();
+        int n = 0;
+        for (String line = in.readLine(); line != null;
+             line = in.readLine()) {
+            n += 1;
+            Gitlet before = null;
+            try {
+                String[] args = split(line);
+                if (args.length == 0 || args[0].startsWith("#")) {
+                    continue;
+                }
+                if (args[0].equals(CHECKPOINT)) {
+                    Utils.checkInput(args, 1);
+                    save(g);
+                } else {
+                    before = g.copy();
+                    Main.run(g, args);
+                }
+                System.out.printf("[%d] ok%n", n);
+            } catch (GitletException excp) {
+                System.out.printf("[%d] error: %s%n", n, excp.getMessage());
+                if (before != null) {
+                    g = before;
+                }
+            }
+        }
+        save(g);
+    }
+
+    /** Save G, unless there is no repository to save it in. */
+    private static void save(Gitlet g) throws IOException {
+        if (Gitlet.HISTORY.getParentFile().isDirectory()) {
+            Gitlet.save(g);
+        }
+    }
+
+    /**
+     * Return the arguments on LINE, split at blanks and unquoted as
+     * described above.
+     */
+    static String[] split(String line) {
+        List<String> result = new ArrayList<>();
+        StringBuilder arg = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == quote) {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    i += 1;
+                    arg.append(line.charAt(i));
+                } else {
+                    arg.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (arg != null) {
+                    result.add(arg.toString());
+                    arg = null;
+                }
+            } else {
+                if (arg == null) {
+                    arg = new StringBuilder();
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else {
+                    arg.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            throw new GitletException("Unterminated quote.");
+        }
+        if (arg != null) {
+            result.add(arg.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+
+}
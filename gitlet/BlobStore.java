@@ -0,0 +1,649 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content-addressed store for file contents. A blob is named by the SHA-1
+ * of its raw bytes, and is kept on disk as a one-byte codec tag followed by
+ * the encoded payload, so each object can pick its own codec.
+ *
+ * @author Siyan Shen
+ */
+class BlobStore {
+
+    /** Directory holding loose blobs. */
+    static final File BLOBS = new File(".gitlet/blobs");
+
+    /** Codec tag: payload is the raw contents. */
+    static final byte STORED = 0;
+
+    /** Codec tag: payload is the contents run through DEFLATE. */
+    static final byte DEFLATED = 1;
+
+    /**
+     * Codec tag, used only inside packs: payload is the id of a base blob
+     * followed by a deflated delta against it.
+     */
+    static final byte DELTA = 2;
+
+    /**
+     * Codec tag: payload is the count of the chunks the contents were cut
+     * into, followed by the id and length of each. Chunks are blobs.
+     */
+    static final byte CHUNKED = 3;
+
+    /** Files at least this long are stored in chunks. */
+    static final long CHUNK_FILES = 1L << 20;
+
+    /** Blobs smaller than this are not worth compressing. */
+    static final int MIN_DEFLATE = 64;
+
+    /** Size of the scratch buffers used by the codecs. */
+    static final int BUFFER = 8192;
+
+    /**
+     * Name of the system property that makes checkout link files. This is
+     * an opt-in risk: every working file with the same contents is then
+     * the same file on disk, so writing one in place, as root can even
+     * though it is read-only, or after making it writable, changes them
+     * all, and the stat cache may not notice. A shared copy is checked
+     * against its id before it is linked to again, and replaced if it was
+     * changed, but the files already linked to it keep the changes.
+     */
+    static final String LINKS = "gitlet.hardlinks";
+
+    /** Directory of the read-only copies of contents linked to. */
+    static final File LINKED = new File(".gitlet/linked");
+
+    /** Mode of the files in LINKED. */
+    private static final Set<PosixFilePermission> READ_ONLY =
+            PosixFilePermissions.fromString("r--r--r--");
+
+    /** Upper bound on the bytes kept in CACHE. */
+    static final long CACHE_BYTES = 32L << 20;
+
+    /**
+     * Recently reconstructed delta results and bases, so walking a delta
+     * chain rebuilds each link once.
+     */
+    static final ObjectCache<byte[]> CACHE =
+            new ObjectCache<>("blob", CACHE_BYTES);
+
+    /** Leading bytes of formats that are already compressed. */
+    private static final byte[][] COMPRESSED_MAGIC = {
+        {(byte) 0x1f, (byte) 0x8b},
+        {'P', 'K', 3, 4},
+        {(byte) 0x89, 'P', 'N', 'G'},
+        {(byte) 0xff, (byte) 0xd8, (byte) 0xff},
+        {'G', 'I', 'F', '8'},
+        {'B', 'Z', 'h'},
+        {(byte) 0xfd, '7', 'z', 'X', 'Z'},
+        {'7', 'z', (byte) 0xbc, (byte) 0xaf},
+        {(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd},
+        {'%', 'P', 'D', 'F'},
+        {'O', 'g', 'g', 'S'},
+    };
+
+    /** Store CONTENTS if they are not present yet and return their id. */
+    static String put(byte[] contents) {
+        String id = Utils.sha1(contents);
+        File blob = file(id);
+        if (!ObjectStore.stored(blob) && !Pack.contains(id)) {
+            ObjectStore.writeShard(blob, encode(contents));
+        }
+        return id;
+    }
+
+    /**
+     * Store the contents of FILE if they are not present yet and return
+     * their id. The file is read once, through a fixed-size buffer: its
+     * bytes are hashed and encoded into a temporary object at the same
+     * time, and the object is renamed into place once its id is known.
+     * The object thus holds exactly the bytes hashed, even if FILE is
+     * changed while it is read.
+     */
+    static String put(File file) {
+        if (file.length() >= CHUNK_FILES) {
+            return putChunked(file);
+        }
+        File tmp = null;
+        try {
+            BLOBS.mkdirs();
+            tmp = File.createTempFile("tmp-", ".blob", BLOBS);
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            long size;
+            boolean deflate;
+            try (InputStream in = new DigestInputStream(
+                    Files.newInputStream(file.toPath()), md)) {
+                byte[] head = in.readNBytes(BUFFER);
+                deflate = head.length >= MIN_DEFLATE && !precompressed(head);
+                size = head.length + writeTagged(tmp, deflate, head, in);
+            }
+            if (deflate && tmp.length() - 1 >= size) {
+                tmp = inflated(tmp);
+            }
+            String id = Utils.hex(md.digest());
+            File blob = file(id);
+            if (ObjectStore.stored(blob) || Pack.contains(id)) {
+                return id;
+            }
+            blob.getParentFile().mkdirs();
+            Durable.move(tmp.toPath(), blob);
+            return id;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot store %s: %s", file,
+                    excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw Utils.error("System does not support SHA-1.");
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Return a new temporary object holding the contents of the deflated
+     * temporary object TMP stored whole, and delete TMP. The contents are
+     * taken from TMP rather than from the file they came from, which may
+     * have changed since it was hashed.
+     */
+    private static File inflated(File tmp) throws IOException {
+        File result = File.createTempFile("tmp-", ".blob", BLOBS);
+        try (InputStream in = Files.newInputStream(tmp.toPath())) {
+            in.read();
+            writeTagged(result, false, new byte[0],
+                        new InflaterInputStream(in));
+        } catch (IOException excp) {
+            result.delete();
+            throw excp;
+        } finally {
+            tmp.delete();
+        }
+        return result;
+    }
+
+    /**
+     * Store the contents of FILE as a list of content-defined chunks, each
+     * stored once as a blob of its own, and return their id. An edit to a
+     * stored file only adds the chunks around it.
+     */
+    private static String putChunked(File file) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            ByteArrayOutputStream refs = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(refs);
+            int count = 0;
+            try (InputStream in = new DigestInputStream(
+                    Files.newInputStream(file.toPath()), md)) {
+                Chunker chunker = new Chunker(in);
+                for (byte[] chunk = chunker.next(); chunk != null;
+                     chunk = chunker.next()) {
+                    out.write(Utils.unhex(put(chunk)));
+                    out.writeInt(chunk.length);
+                    count += 1;
+                }
+            }
+            String id = Utils.hex(md.digest());
+            if (!contains(id)) {
+                ByteArrayOutputStream record = new ByteArrayOutputStream();
+                DataOutputStream rec = new DataOutputStream(record);
+                rec.writeByte(CHUNKED);
+                rec.writeInt(count);
+                refs.writeTo(rec);
+                ObjectStore.writeShard(file(id), record.toByteArray());
+            }
+            return id;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot store %s: %s", file,
+                    excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw Utils.error("System does not support SHA-1.");
+        }
+    }
+
+    /** Return the ids of the chunks listed in the CHUNKED RECORD. */
+    static String[] chunks(byte[] record) {
+        ByteBuffer refs = ByteBuffer.wrap(record, 1, record.length - 1);
+        String[] result = new String[refs.getInt()];
+        byte[] id = new byte[Pack.ID_BYTES];
+        for (int i = 0; i < result.length; i += 1) {
+            refs.get(id);
+            refs.getInt();
+            result[i] = Utils.hex(id);
+        }
+        return result;
+    }
+
+    /** Return true iff the blob ID is stored in chunks. */
+    static boolean chunked(String id) {
+        File loose = file(id);
+        if (loose.exists()) {
+            try (InputStream in = Files.newInputStream(loose.toPath())) {
+                return in.read() == CHUNKED;
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read blob %s.", id);
+            }
+        }
+        byte[] record = Pack.find(id);
+        return record != null && record.length > 0 && record[0] == CHUNKED;
+    }
+
+    /**
+     * Write to TMP a record whose contents are HEAD followed by the rest of
+     * IN, deflated if DEFLATE, and return the number of bytes taken from
+     * IN.
+     */
+    private static long writeTagged(File tmp, boolean deflate, byte[] head,
+                                    InputStream in) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (OutputStream file = new BufferedOutputStream(
+                Files.newOutputStream(tmp.toPath()), BUFFER)) {
+            file.write(deflate ? DEFLATED : STORED);
+            if (!deflate) {
+                file.write(head);
+                return in.transferTo(file);
+            }
+            DeflaterOutputStream out =
+                    new DeflaterOutputStream(file, deflater, BUFFER);
+            out.write(head);
+            long result = in.transferTo(out);
+            out.finish();
+            return result;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Return a stream of the raw contents of the blob ID. Loose blobs are
+     * decoded as they are read; packed ones are decoded in memory.
+     */
+    static InputStream open(String id) throws IOException {
+        File loose = file(id);
+        if (!loose.exists()) {
+            byte[] record = record(id);
+            if (record.length > 0 && record[0] == CHUNKED) {
+                return concat(chunks(record));
+            }
+            return new ByteArrayInputStream(get(id));
+        }
+        InputStream in = new BufferedInputStream(
+                Files.newInputStream(loose.toPath()), BUFFER);
+        int codec = in.read();
+        switch (codec) {
+        case STORED:
+            return in;
+        case DEFLATED:
+            return new InflaterInputStream(in);
+        case CHUNKED:
+            in.close();
+            return concat(chunks(Utils.readContents(loose)));
+        default:
+            in.close();
+            throw Utils.error("Unknown blob codec %d.", codec);
+        }
+    }
+
+    /**
+     * Return a stream of the contents of the blobs IDS, one after another.
+     * Each blob is read only when the stream reaches it.
+     */
+    private static InputStream concat(String[] ids) {
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next < ids.length;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                next += 1;
+                return new ByteArrayInputStream(get(ids[next - 1]));
+            }
+        });
+    }
+
+    /**
+     * Write the contents of the blob ID to FILE, replacing it. Contents
+     * stored whole, loose or packed, are copied by the system from the
+     * store to FILE without passing through the heap; others are decoded
+     * through a fixed-size buffer. When the system property LINKS is true,
+     * FILE is instead made a hard link to a read-only copy of the contents
+     * kept in LINKED, shared by every working file that has them. Such a
+     * file must be replaced rather than written in place.
+     */
+    static void copyTo(String id, File file) {
+        try {
+            if (Boolean.getBoolean(LINKS) && link(id, file)) {
+                return;
+            }
+            Files.deleteIfExists(file.toPath());
+            try (FileChannel out = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                copy(id, out);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write %s: %s", file, excp.getMessage());
+        }
+    }
+
+    /** Write the contents of the blob ID to OUT. */
+    private static void copy(String id, FileChannel out) throws IOException {
+        File loose = file(id);
+        if (loose.exists()) {
+            try (FileChannel in = FileChannel.open(loose.toPath())) {
+                ByteBuffer tag = ByteBuffer.allocate(1);
+                in.read(tag, 0);
+                if (tag.position() == 1 && tag.get(0) == STORED) {
+                    transfer(in, 1, in.size() - 1, out);
+                    return;
+                }
+            }
+        } else if (Pack.transferTo(id, out)) {
+            return;
+        }
+        if (chunked(id)) {
+            for (String chunk : chunks(record(id))) {
+                copy(chunk, out);
+            }
+            return;
+        }
+        try (InputStream in = open(id)) {
+            in.transferTo(Channels.newOutputStream(out));
+        }
+    }
+
+    /** Copy the LEN bytes of IN at offset AT to OUT. */
+    static void transfer(FileChannel in, long at, long len,
+                         WritableByteChannel out) throws IOException {
+        while (len > 0) {
+            long n = in.transferTo(at, len, out);
+            if (n <= 0) {
+                throw new IOException("truncated object");
+            }
+            at += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Make FILE a hard link to the copy of the contents of the blob ID in
+     * LINKED, making that copy first unless it is there, read-only and
+     * still holding those contents, and return true. Return false if
+     * links cannot be made here.
+     */
+    private static boolean link(String id, File file) throws IOException {
+        Path shared = new File(new File(LINKED,
+                id.substring(0, ObjectStore.SHARD)),
+                id.substring(ObjectStore.SHARD)).toPath();
+        try {
+            if (!readOnly(shared) || !id.equals(Utils.sha1(shared.toFile()))) {
+                Files.createDirectories(shared.getParent());
+                Path tmp = Durable.tmp(shared.toFile());
+                try {
+                    try (FileChannel out = FileChannel.open(tmp,
+                            StandardOpenOption.WRITE)) {
+                        copy(id, out);
+                    }
+                    Files.setPosixFilePermissions(tmp, READ_ONLY);
+                    Files.move(tmp, shared,
+                            StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+            Files.deleteIfExists(file.toPath());
+            Files.createLink(file.toPath(), shared);
+            return true;
+        } catch (UnsupportedOperationException | FileSystemException excp) {
+            return false;
+        }
+    }
+
+    /**
+     * Delete the copies in LINKED that no working file is linked to any
+     * longer, and the shards they leave empty.
+     */
+    static void pruneLinked() {
+        File[] shards = LINKED.listFiles(File::isDirectory);
+        if (shards == null) {
+            return;
+        }
+        try {
+            for (File shard : shards) {
+                File[] copies = shard.listFiles();
+                for (File copy : copies == null ? new File[0] : copies) {
+                    Object links = Files.getAttribute(copy.toPath(),
+                                                      "unix:nlink");
+                    if (((Integer) links) <= 1) {
+                        Files.deleteIfExists(copy.toPath());
+                    }
+                }
+                shard.delete();
+            }
+        } catch (UnsupportedOperationException
+                 | IllegalArgumentException excp) {
+            return;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot prune %s: %s", LINKED,
+                              excp.getMessage());
+        }
+    }
+
+    /** Return true iff PATH exists and its mode lets no one write it. */
+    private static boolean readOnly(Path path) throws IOException {
+        try {
+            Set<PosixFilePermission> mode =
+                Files.getPosixFilePermissions(path);
+            return !mode.contains(PosixFilePermission.OWNER_WRITE)
+                && !mode.contains(PosixFilePermission.GROUP_WRITE)
+                && !mode.contains(PosixFilePermission.OTHERS_WRITE);
+        } catch (NoSuchFileException excp) {
+            return false;
+        }
+    }
+
+    /** Store CONTENTS, a String, and return its id. */
+    static String put(String contents) {
+        return put(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Return the raw contents of the blob ID. */
+    static byte[] get(String id) {
+        byte[] record = record(id);
+        if (record.length > 0 && record[0] == DELTA) {
+            return cachedGet(id, record);
+        }
+        return decode(record);
+    }
+
+    /** Return the stored record of the blob ID, loose or packed. */
+    static byte[] record(String id) {
+        File loose = file(id);
+        if (loose.exists()) {
+            return Utils.readContents(loose);
+        }
+        byte[] record = Pack.find(id);
+        if (record == null) {
+            throw Utils.error("Missing blob %s.", id);
+        }
+        return record;
+    }
+
+    /** Return the contents of the blob ID as a String. */
+    static String getAsString(String id) {
+        return new String(get(id), StandardCharsets.UTF_8);
+    }
+
+    /** Return true iff the blob ID is present. */
+    static boolean contains(String id) {
+        return ObjectStore.stored(file(id)) || Pack.contains(id);
+    }
+
+    /** Return the file holding the blob ID. */
+    static File file(String id) {
+        return ObjectStore.shard(BLOBS, id);
+    }
+
+    /** Return CONTENTS tagged and encoded with the best codec for them. */
+    static byte[] encode(byte[] contents) {
+        if (contents.length >= MIN_DEFLATE && !precompressed(contents)) {
+            byte[] deflated = deflate(contents);
+            if (deflated.length < contents.length) {
+                return tag(DEFLATED, deflated);
+            }
+        }
+        return tag(STORED, contents);
+    }
+
+    /** Return the contents encoded in the tagged RECORD. */
+    static byte[] decode(byte[] record) {
+        if (record.length == 0) {
+            throw Utils.error("Corrupt blob.");
+        }
+        byte[] payload = Arrays.copyOfRange(record, 1, record.length);
+        switch (record[0]) {
+        case STORED:
+            return payload;
+        case DEFLATED:
+            return inflate(payload);
+        case CHUNKED:
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (String chunk : chunks(record)) {
+                out.writeBytes(get(chunk));
+            }
+            return out.toByteArray();
+        case DELTA:
+            String base = Utils.hex(Arrays.copyOfRange(payload, 0,
+                    Pack.ID_BYTES));
+            return Delta.apply(cachedGet(base, null),
+                    inflate(Arrays.copyOfRange(payload, Pack.ID_BYTES,
+                            payload.length)));
+        default:
+            throw Utils.error("Unknown blob codec %d.", record[0]);
+        }
+    }
+
+    /**
+     * Return the contents of the blob ID, whose record is RECORD if that
+     * is not null, remembering them in CACHE.
+     */
+    private static byte[] cachedGet(String id, byte[] record) {
+        byte[] hit = CACHE.get(id);
+        if (hit != null) {
+            return hit;
+        }
+        byte[] contents = decode(record == null ? record(id) : record);
+        CACHE.put(id, contents, contents.length);
+        return contents;
+    }
+
+    /**
+     * Return a record for TARGET as a delta against BASE, the contents of
+     * the blob BASEID.
+     */
+    static byte[] encodeDelta(String baseid, byte[] base, byte[] target) {
+        byte[] delta = deflate(Delta.create(base, target));
+        byte[] id = Utils.unhex(baseid);
+        byte[] payload = new byte[id.length + delta.length];
+        System.arraycopy(id, 0, payload, 0, id.length);
+        System.arraycopy(delta, 0, payload, id.length, delta.length);
+        return tag(DELTA, payload);
+    }
+
+    /** Return true iff CONTENTS start like a compressed file format. */
+    static boolean precompressed(byte[] contents) {
+        for (byte[] magic : COMPRESSED_MAGIC) {
+            if (contents.length >= magic.length
+                    && Arrays.equals(magic, 0, magic.length,
+                                     contents, 0, magic.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return PAYLOAD prefixed by the codec tag CODEC. */
+    private static byte[] tag(byte codec, byte[] payload) {
+        byte[] result = new byte[payload.length + 1];
+        result[0] = codec;
+        System.arraycopy(payload, 0, result, 1, payload.length);
+        return result;
+    }
+
+    /** Return DATA compressed with DEFLATE. */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[BUFFER];
+        while (!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    /** Return DATA decompressed with INFLATE. */
+    static byte[] inflate(byte[] data) {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[BUFFER];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                if (n == 0 && (inflater.needsInput()
+                        || inflater.needsDictionary())) {
+                    throw Utils.error("Truncated blob.");
+                }
+                out.write(buf, 0, n);
+            }
+        } catch (DataFormatException excp) {
+            throw Utils.error("Corrupt blob: %s", excp.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -1,6 +1,5 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
 
 
@@ -11,6 +10,9 @@ import java.io.Serializable;
  */
 public class Branch implements Serializable {
 
+    /** Version of my serialized form. */
+    private static final long serialVersionUID = 1L;
+
 
     /**
      * My name.
@@ -46,9 +48,7 @@ public class Branch implements Serializable {
      * @return real commit
      */
     public Commit getCommit() {
-        File mycommit = new File(".gitlet/objects/" + head + ".ser");
-        Commit myrealcommit = Utils.readObject(mycommit, Commit.class);
-        return myrealcommit;
+        return ObjectStore.readCommit(head);
     }
 
 
@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a stream into chunks at content-defined boundaries, using the
+ * FastCDC rolling gear hash. A boundary depends only on the bytes just
+ * before it, so an insertion or deletion moves the boundaries near the edit
+ * and leaves the others, and the chunks between them, unchanged. Chunks are
+ * between MIN and MAX bytes long; below NORMAL a stricter mask is used, and
+ * above it a looser one, which keeps most chunks close to NORMAL.
+ *
+ * @author Siyan Shen
+ */
+class Chunker {
+
+    /** Smallest chunk, except at the end of the stream. */
+    static final int MIN = 16 << 10;
+
+    /** Chunk size aimed for. */
+    static final int NORMAL = 64 << 10;
+
+    /** Largest chunk. */
+    static final int MAX = 256 << 10;
+
+    /** Mask for cuts before NORMAL: 18 bits, so cuts there are rare. */
+    private static final long MASK_S = -1L << (Long.SIZE - 18);
+
+    /** Mask for cuts after NORMAL: 14 bits, so cuts there are common. */
+    private static final long MASK_L = -1L << (Long.SIZE - 14);
+
+    /** Seed of the gear table. Changing it changes every boundary. */
+    private static final long SEED = 0x6769746c65744344L;
+
+    /** Random value added to the hash for each byte value. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long x = SEED;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            x += 0x9e3779b97f4a7c15L;
+            long z = x;
+            z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+            z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    /** Stream being split. */
+    private final InputStream in;
+
+    /** Bytes read from IN but not yet returned. */
+    private final byte[] buf = new byte[MAX];
+
+    /** Number of valid bytes in BUF. */
+    private int len;
+
+    /** True once IN is exhausted. */
+    private boolean eof;
+
+    /** A chunker splitting IN. */
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /** Return the next chunk of my stream, or null at its end. */
+    byte[] next() throws IOException {
+        while (!eof && len < MAX) {
+            int n = in.read(buf, len, MAX - len);
+            if (n < 0) {
+                eof = true;
+            } else {
+                len += n;
+            }
+        }
+        if (len == 0) {
+            return null;
+        }
+        int cut = cut(buf, len);
+        byte[] result = Arrays.copyOf(buf, cut);
+        System.arraycopy(buf, cut, buf, 0, len - cut);
+        len -= cut;
+        return result;
+    }
+
+    /** Return the length of the first chunk of the N bytes of DATA. */
+    static int cut(byte[] data, int n) {
+        if (n <= MIN) {
+            return n;
+        }
+        int end = Math.min(n, MAX);
+        int normal = Math.min(end, NORMAL);
+        long fp = 0;
+        int i = MIN;
+        for (; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[data[i] & 0xff];
+            if ((fp & MASK_S) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < end; i += 1) {
+            fp = (fp << 1) + GEAR[data[i] & 0xff];
+            if ((fp & MASK_L) == 0) {
+                return i + 1;
+            }
+        }
+        return end;
+    }
+
+}
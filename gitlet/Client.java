@@ -0,0 +1,65 @@
+package gitlet;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+
+/** Sends gitlet commands to a running Daemon, and runs them itself when
+ *  there is none.
+ *  @author Siyan Shen
+ */
+public class Client {
+
+    /** Usage: java gitlet.Client ARGS, where ARGS is as for gitlet.Main.
+     *  The command is sent to the daemon serving the repository in the
+     *  current directory, if there is one, and is otherwise executed
+     *  here. */
+    public static void main(String... args) {
+        SocketChannel daemon = connect();
+        boolean stop = args.length == 2 && args[0].equals("daemon")
+            && args[1].equals(Daemon.STOP);
+        if (daemon == null) {
+            if (stop) {
+                System.out.println("No daemon is running.");
+                System.exit(0);
+            }
+            Main.main(args);
+            return;
+        }
+        try (daemon) {
+            Daemon.writeArgs(Channels.newOutputStream(daemon), args);
+            daemon.shutdownOutput();
+            Channels.newInputStream(daemon).transferTo(System.out);
+            System.out.flush();
+        } catch (IOException excp) {
+            System.out.println("Lost the daemon: " + excp.getMessage());
+        }
+        System.exit(0);
+    }
+
+    /** Return a connection to the daemon serving the repository in the
+     *  current directory, or null if none is running. */
+    static SocketChannel connect() {
+        if (!Daemon.SOCKET.exists()) {
+            return null;
+        }
+        SocketChannel result = null;
+        try {
+            result = SocketChannel.open(StandardProtocolFamily.UNIX);
+            result.connect(UnixDomainSocketAddress.of(Daemon.SOCKET.toPath()));
+            return result;
+        } catch (IOException excp) {
+            if (result != null) {
+                try {
+                    result.close();
+                } catch (IOException ignored) {
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+}
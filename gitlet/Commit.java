@@ -1,8 +1,11 @@
 package gitlet;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.Serializable;
-import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.text.SimpleDateFormat;
 
@@ -11,12 +14,17 @@ import java.util.TreeMap;
 
 
 /**
- * consist of a log message, timestamp, a mapping of  le names to blob
+ * consist of a log message, timestamp, a root tree mapping file names to blob
  * references, a parent reference, and (for merges) a second parent reference.
+ * A commit is stored in a versioned binary encoding of exactly those fields,
+ * and its id is the SHA-1 of that encoding.
  *
  * @author Siyan Shen
  */
-public class Commit implements Serializable {
+public class Commit {
+
+    /** Version of the encoding written by encode. */
+    static final int FORMAT = 2;
 
     /** My id. */
     private String myID;
@@ -24,89 +32,150 @@ public class Commit implements Serializable {
     /** My message. */
     private String message;
 
-    /** My git. */
-    private Gitlet myGit;
-
     /** My date. */
     private Date d;
 
-    /** My date as a string. */
-    private String dateFormatted;
-
     /** My parent. */
     private String parent;
 
-    /** im a conflict. */
-    private boolean conflict;
-
     /** my second parent. */
     private String parent2;
+
+    /** id of my root tree. */
+    private String tree;
+
     /**
-     * key: blob name. val: blob id
+     * key: blob name. val: blob id. Read from my tree when first needed.
      */
     private TreeMap<String, String> myBlobs;
 
-    /** construct ad new commit with GIT, PARENTID, MSG, INITIAL, CONF. */
+    /**
+     * construct ad new commit with GIT, PARENTID, MSG, INITIAL and, for
+     * merges, second parent P2.
+     */
     public Commit(Gitlet git, String parentId, String msg, boolean initial,
-                  boolean conf) throws IOException {
-        if (!initial && (git.getRmFiles().isEmpty()
-                && git.getStagedFiles().keySet().isEmpty())) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+                  String p2) throws IOException {
+        TreeMap<String, String> changes = git.getIndex().changes();
+        if (!initial && changes.isEmpty()) {
+            throw new GitletException("No changes added to the commit.");
         }
-        myGit = git;
         parent = parentId;
+        parent2 = p2;
         message = msg;
-        conflict = conf;
-        SimpleDateFormat A = new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
         if (!initial) {
             d = new Date();
-            dateFormatted = A.format(d);
         } else {
             d = new Date(0);
-            dateFormatted = A.format(d);
         }
-        myBlobs = new TreeMap<>();
-        if (parentId == null) {
-            return;
-        } else {
-            Commit myparent = Utils.readObject(new File(String.format("%s%s%s",
-                    ".gitlet/objects/", parent, ".ser")), Commit.class);
-            TreeMap<String, String> parentblobs = Utils
-                    .copytreemap(myparent.myBlobs);
-            for (String filenames : parentblobs.keySet()) {
-                if (!myGit.getRmFiles().contains(filenames)) {
-                    if (!myGit.getStagedFiles().containsKey(filenames)) {
-                        myBlobs.put(filenames, myparent.myBlobs.get(filenames));
-                    } else {
-                        String blobidstring =
-                                myGit.getStagedFiles().get(filenames);
-                        String blobid = Utils.sha1(blobidstring);
-                        File newblob = new File(String.format("%s%s%s",
-                                ".gitlet/blobs/", blobid, ".ser"));
-                        newblob.createNewFile();
-                        Utils.writeContents(newblob, blobidstring);
-                        myBlobs.put(filenames, blobid);
-                        myGit.getStagedFiles().keySet().remove(filenames);
-                    }
-                }
-            }
-            TreeMap<String, String> stagedfiles1 =
-                    Utils.copytreemap(myGit.getStagedFiles());
-            for (String stagedfiles : stagedfiles1.keySet()) {
-                String newblobid = Utils.sha1(myGit.getStagedFiles()
-                        .get(stagedfiles));
-                myBlobs.put(stagedfiles, newblobid);
-                File newblob = new File(".gitlet/blobs/"
-                        + newblobid + ".ser");
-                newblob.createNewFile();
-                Utils.writeContents(newblob,
-                        myGit.getStagedFiles().get(stagedfiles));
-                myGit.getStagedFiles().keySet().remove(stagedfiles);
+        String base = null;
+        if (parentId != null) {
+            base = ObjectStore.readCommit(parent).tree;
+        }
+        tree = Tree.update(base, changes);
+        if (tree == null) {
+            tree = ObjectStore.writeTree(new Tree());
+        }
+        myID = Utils.sha1(encode());
+    }
+
+    /**
+     * construct a commit of the tree ROOT, or of an empty tree if ROOT is
+     * null, made at DATE with message MSG and parents PARENTID and P2,
+     * either of which may be null.
+     */
+    Commit(String parentId, String p2, String msg, Date date, String root) {
+        parent = parentId;
+        parent2 = p2;
+        message = msg;
+        d = date;
+        tree = root;
+        if (tree == null) {
+            tree = ObjectStore.writeTree(new Tree());
+        }
+        myID = Utils.sha1(encode());
+    }
+
+    /** A commit to be filled in by decode. */
+    private Commit() {
+    }
+
+    /**
+     * Returns my canonical encoding: format version, timestamp, parents,
+     * message and root tree id.
+     */
+    public byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT);
+            out.writeLong(d.getTime());
+            writeId(out, parent);
+            writeId(out, parent2);
+            writeString(out, message);
+            out.write(Utils.unhex(tree));
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding commit.");
+        }
+    }
+
+    /** Returns the commit whose encoding is BYTES. */
+    public static Commit decode(byte[] bytes) {
+        Commit result = new Commit();
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(bytes));
+            int format = in.readUnsignedByte();
+            if (format != FORMAT) {
+                throw Utils.error("Unsupported commit format %d.", format);
             }
-            myGit.getRmFiles().clear();
+            result.d = new Date(in.readLong());
+            result.parent = readId(in);
+            result.parent2 = readId(in);
+            result.message = readString(in);
+            result.tree = readRawId(in);
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt commit.");
         }
+        result.myID = Utils.sha1(bytes);
+        return result;
+    }
+
+    /** Write the possibly null commit ID to OUT. */
+    private static void writeId(DataOutputStream out, String id)
+            throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.write(Utils.unhex(id));
+        }
+    }
 
+    /** Read an id written by writeId from IN. */
+    private static String readId(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readRawId(in) : null;
+    }
+
+    /** Read a raw SHA-1 value from IN. */
+    private static String readRawId(DataInputStream in) throws IOException {
+        byte[] raw = new byte[Pack.ID_BYTES];
+        in.readFully(raw);
+        return Utils.hex(raw);
+    }
+
+    /** Write the length of S and then S itself in UTF-8 to OUT. */
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Read a string written by writeString from IN. */
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
     }
 
 
@@ -125,10 +194,10 @@ public class Commit implements Serializable {
     }
 
     /**
-     * Set the second parent as P2.
+     * Returns the time this commit was made, in milliseconds.
      */
-    protected void setParent2(String p2) {
-        parent2 = p2;
+    public long getTimestamp() {
+        return d.getTime();
     }
 
     /**
@@ -138,13 +207,6 @@ public class Commit implements Serializable {
         return message;
     }
 
-    /**
-     * Set SHA1 id.
-     */
-    public void setID() {
-        myID = Utils.sha1(Utils.serialize(this));
-    }
-
     /**
      * Returns SHA1 value of this commit.
      */
@@ -156,28 +218,37 @@ public class Commit implements Serializable {
      * Return a blobid with given name FILENAME.
      */
     public String getBlobid(String filename) {
-        return myBlobs.get(filename);
+        return getMyBlobs().get(filename);
+    }
+
+    /**
+     * Returns the id of my root tree.
+     */
+    public String getTree() {
+        return tree;
     }
 
     /**
      * Return whether the commit has a second parent or not.
      */
-    public boolean isConflict() {
-        return conflict;
+    public boolean isMerge() {
+        return parent2 != null;
     }
 
     /**
      * Returns my blobs.
      */
     public TreeMap<String, String> getMyBlobs() {
+        if (myBlobs == null) {
+            myBlobs = new TreeMap<>();
+            Tree.flatten(tree, "", myBlobs);
+        }
         return myBlobs;
     }
 
     /** return BLOBID content as string. */
     public String blobcontent(String blobid) {
-        File blobdir = new File(".gitlet/blobs/"
-                + blobid + ".ser");
-        return Utils.readContentsAsString(blobdir);
+        return BlobStore.getAsString(blobid);
     }
 
 
@@ -185,14 +256,25 @@ public class Commit implements Serializable {
      * Prints info of THIS commit as is needed for log function.
      */
     public void printInfo() {
-        System.out.println("===");
-        System.out.println("commit " + getID());
-        if (conflict) {
-            System.out.println("Merge: " + parent.substring(0, 7) + " "
-                    + parent2.substring(0, 7));
+        System.out.print(info());
+    }
+
+    /**
+     * Returns info of THIS commit as printed by printInfo.
+     */
+    public String info() {
+        StringBuilder result = new StringBuilder();
+        result.append("===\n");
+        result.append("commit ").append(getID()).append("\n");
+        if (isMerge()) {
+            result.append("Merge: ").append(parent, 0, 7).append(" ")
+                    .append(parent2, 0, 7).append("\n");
         }
-        System.out.println("Date: " + this.dateFormatted);
-        System.out.println(message + "\n");
+        SimpleDateFormat format =
+                new SimpleDateFormat("EEE MMM dd HH:mm:ss yyyy Z");
+        result.append("Date: ").append(format.format(d)).append("\n");
+        result.append(message).append("\n\n");
+        return result.toString();
     }
 
 }
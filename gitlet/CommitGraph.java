@@ -0,0 +1,530 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The shape of the history, kept apart from the commits themselves so that
+ * walks need not read them. The commit-graph file holds one fixed-width
+ * record per commit, with its id, the positions of its parents' records,
+ * its timestamp and its generation number: 1 for a root, else one more than
+ * the largest generation of its parents. A commit's generation is larger
+ * than that of any of its ancestors.
+ *
+ * The first BASE records are sorted by id and found by binary search; the
+ * records after them were appended one per commit since, and are scanned.
+ * An appended record is forced to the disk before the count that takes it
+ * in is written, so a crash never leaves the count covering a record that
+ * is not there. When the tail grows too long the file is rewritten, with
+ * every record in the sorted part, and renamed into place.
+ *
+ * @author Siyan Shen
+ */
+class CommitGraph {
+
+    /** File holding the graph. */
+    static final File FILE = new File(".gitlet/commit-graph");
+
+    /** Magic number at the start of FILE. */
+    static final int MAGIC = 0x47434752;
+
+    /** Version of the format of FILE. */
+    static final int VERSION = 1;
+
+    /** Length of the header: magic, version, count and base. */
+    static final int HEADER = 16;
+
+    /** Position of the record count in the header. */
+    static final int COUNT_AT = 8;
+
+    /** Length of a record: id, two parents, timestamp and generation. */
+    static final int RECORD = Pack.ID_BYTES + 4 + 4 + 8 + 4;
+
+    /** Parent position meaning there is no such parent. */
+    static final int NONE = -1;
+
+    /** The tail is never compacted while it is shorter than this. */
+    static final int MIN_TAIL = 256;
+
+    /** The graph read by get, or null if none has been read yet. */
+    private static CommitGraph graph;
+
+    /** The records, mapped from FILE. */
+    private final MappedByteBuffer records;
+
+    /** Number of records. */
+    private final int count;
+
+    /** Number of records, at the start, that are sorted by id. */
+    private final int base;
+
+    /** The graph stored in FILE, which must be well formed. */
+    private CommitGraph() {
+        try (FileChannel chan = FileChannel.open(FILE.toPath())) {
+            records = chan.map(FileChannel.MapMode.READ_ONLY, 0,
+                               chan.size());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read commit graph: %s",
+                    excp.getMessage());
+        }
+        if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt commit graph.");
+        }
+        count = records.getInt(COUNT_AT);
+        base = records.getInt(COUNT_AT + 4);
+    }
+
+    /** Return the graph of this repository, building it if it is missing. */
+    static synchronized CommitGraph get() {
+        if (graph == null) {
+            if (!FILE.exists()) {
+                rebuild();
+            }
+            graph = new CommitGraph();
+        }
+        return graph;
+    }
+
+    /**
+     * Forget the graph read so far, so that the next call to get reads
+     * FILE anew, as another process may have changed it.
+     */
+    static synchronized void reload() {
+        graph = null;
+    }
+
+    /** Returns the number of commits in me. */
+    int size() {
+        return count;
+    }
+
+    /** Return the position of the commit ID, or NONE if I lack it. */
+    int find(String id) {
+        byte[] key = Utils.unhex(id);
+        int lo = 0;
+        int hi = base - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, key);
+            if (c == 0) {
+                return mid;
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        for (int k = count - 1; k >= base; k -= 1) {
+            if (compare(k, key) == 0) {
+                return k;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Return the position of the commit ID. If I lack it, though it is a
+     * commit in the store, as after a crash between writing a commit and
+     * recording it here, I am rebuilt from the store first.
+     */
+    static int position(String id) {
+        int k = get().find(id);
+        if (k == NONE && (ObjectStore.file(id).exists()
+                          || Pack.contains(id))) {
+            rebuild();
+            k = get().find(id);
+        }
+        return k;
+    }
+
+    /**
+     * Return the ids of the commits whose ids start with PREFIX, a string
+     * of lowercase hex digits, in order. The sorted records are searched
+     * for the first id not below PREFIX, so a lookup reads a logarithmic
+     * number of them plus the matches and the unsorted tail.
+     */
+    List<String> matching(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        int lo = 0;
+        int hi = base;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int k = lo; k < base && id(k).startsWith(prefix); k += 1) {
+            result.add(id(k));
+        }
+        for (int k = base; k < count; k += 1) {
+            String id = id(k);
+            if (id.startsWith(prefix)) {
+                result.add(id);
+            }
+        }
+        result.sort(null);
+        return result;
+    }
+
+    /**
+     * Return the ids of the commits whose ids start with PREFIX, in order.
+     * If there are none, though the store has a matching commit, I am
+     * rebuilt from the store first. PREFIX must be hex digits.
+     */
+    static List<String> resolve(String prefix) {
+        List<String> result = get().matching(prefix);
+        if (result.isEmpty()
+                && !ObjectStore.shardIds(ObjectStore.OBJECTS, prefix)
+                    .isEmpty()) {
+            rebuild();
+            result = get().matching(prefix);
+        }
+        return result;
+    }
+
+    /** Return the id of the commit at K. */
+    String id(int k) {
+        byte[] raw = new byte[Pack.ID_BYTES];
+        records.get(at(k), raw);
+        return Utils.hex(raw);
+    }
+
+    /** Return the position of the first parent of K, or NONE. */
+    int parent(int k) {
+        return records.getInt(at(k) + Pack.ID_BYTES);
+    }
+
+    /** Return the position of the second parent of K, or NONE. */
+    int parent2(int k) {
+        return records.getInt(at(k) + Pack.ID_BYTES + 4);
+    }
+
+    /** Return the timestamp of K. */
+    long time(int k) {
+        return records.getLong(at(k) + Pack.ID_BYTES + 8);
+    }
+
+    /** Return the generation number of K. */
+    int generation(int k) {
+        return records.getInt(at(k) + Pack.ID_BYTES + 16);
+    }
+
+    /** Flag of commits reached from the first side of a merge-base search. */
+    private static final int SIDE1 = 1;
+
+    /** Flag of commits reached from the second side. */
+    private static final int SIDE2 = 2;
+
+    /** Flag of commits below a common ancestor already found. */
+    private static final int STALE = 4;
+
+    /**
+     * Return the best common ancestor of the commits at A and B, or NONE
+     * if they have none. Both sides are searched at once, across second
+     * parents too, taking commits in decreasing generation order, so every
+     * descendant of a commit is seen before it. A commit reached from both
+     * sides is a common ancestor, and everything below it is marked stale;
+     * the search stops once only stale commits are left, which is soon
+     * after the sides meet however long the history is. Where several
+     * common ancestors are not ancestors of one another, as after
+     * criss-cross merges, the one with the largest generation, then the
+     * latest, is returned.
+     */
+    int mergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>(this::newer);
+        flags.put(a, SIDE1);
+        flags.put(b, SIDE2);
+        queue.add(a);
+        queue.add(b);
+        int active = 2;
+        List<Integer> found = new ArrayList<>();
+        while (active > 0) {
+            int k = queue.poll();
+            int f = flags.get(k);
+            if ((f & STALE) == 0) {
+                active -= 1;
+            }
+            if ((f & (SIDE1 | SIDE2)) == (SIDE1 | SIDE2)
+                    && (f & STALE) == 0) {
+                found.add(k);
+                f |= STALE;
+            }
+            for (int p : new int[] {parent(k), parent2(k)}) {
+                if (p == NONE) {
+                    continue;
+                }
+                int old = flags.getOrDefault(p, 0);
+                if ((old | f) == old) {
+                    continue;
+                }
+                if (old == 0) {
+                    queue.add(p);
+                    if ((f & STALE) == 0) {
+                        active += 1;
+                    }
+                } else if ((old & STALE) == 0 && (f & STALE) != 0) {
+                    active -= 1;
+                }
+                flags.put(p, old | f);
+            }
+        }
+        int best = NONE;
+        for (int k : found) {
+            if (!redundant(k, found)
+                    && (best == NONE || newer(k, best) < 0)) {
+                best = k;
+            }
+        }
+        return best;
+    }
+
+    /** Order K before J if it has a larger generation, or is later. */
+    private int newer(int k, int j) {
+        int c = Integer.compare(generation(j), generation(k));
+        return c != 0 ? c : Long.compare(time(j), time(k));
+    }
+
+    /**
+     * Return true iff the commit at K is an ancestor of some other commit
+     * in CANDIDATES. Only commits with generations above K's are visited.
+     */
+    private boolean redundant(int k, List<Integer> candidates) {
+        ArrayDeque<Integer> stack = new ArrayDeque<>();
+        HashSet<Integer> seen = new HashSet<>();
+        for (int c : candidates) {
+            if (c != k) {
+                stack.push(c);
+            }
+        }
+        int floor = generation(k);
+        while (!stack.isEmpty()) {
+            int j = stack.pop();
+            if (j == k) {
+                return true;
+            }
+            if (generation(j) <= floor || !seen.add(j)) {
+                continue;
+            }
+            for (int p : new int[] {parent(j), parent2(j)}) {
+                if (p != NONE) {
+                    stack.push(p);
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the offset of record K in FILE. */
+    private static int at(int k) {
+        return HEADER + k * RECORD;
+    }
+
+    /** Compare the id of record K with KEY as unsigned bytes. */
+    private int compare(int k, byte[] key) {
+        int start = at(k);
+        for (int i = 0; i < Pack.ID_BYTES; i += 1) {
+            int c = (records.get(start + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Record the new commit C, whose parents must already be recorded, by
+     * appending one record to FILE and then counting it, or by rewriting
+     * FILE if its unsorted tail is getting long.
+     */
+    static synchronized void add(Commit c) {
+        CommitGraph g = get();
+        if (g.find(c.getID()) != NONE) {
+            return;
+        }
+        int p1 = c.getParent() == null ? NONE : position(c.getParent());
+        int p2 = c.getParent2() == null ? NONE : position(c.getParent2());
+        g = get();
+        if (g.find(c.getID()) != NONE) {
+            return;
+        }
+        int gen = 1 + Math.max(p1 == NONE ? 0 : g.generation(p1),
+                               p2 == NONE ? 0 : g.generation(p2));
+        if (g.count - g.base >= Math.max(MIN_TAIL, g.base / 8)) {
+            Table t = g.table(1);
+            t.set(g.count, c.getID(), p1, p2, c.getTimestamp(), gen);
+            t.write();
+            return;
+        }
+        ByteBuffer rec = ByteBuffer.allocate(RECORD);
+        rec.put(Utils.unhex(c.getID())).putInt(p1).putInt(p2)
+                .putLong(c.getTimestamp()).putInt(gen).flip();
+        ByteBuffer n = ByteBuffer.allocate(4).putInt(0, g.count + 1);
+        try (FileChannel chan = FileChannel.open(FILE.toPath(),
+                StandardOpenOption.WRITE)) {
+            while (rec.hasRemaining()) {
+                chan.write(rec, at(g.count) + rec.position());
+            }
+            chan.force(false);
+            chan.write(n, COUNT_AT);
+            Durable.changed(FILE);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write commit graph: %s",
+                    excp.getMessage());
+        }
+        graph = null;
+    }
+
+    /** Rebuild FILE from the commits in the object store. */
+    static synchronized void rebuild() {
+        List<String> ids = ObjectStore.commitIds();
+        HashMap<String, Integer> pos = new HashMap<>();
+        for (int k = 0; k < ids.size(); k += 1) {
+            pos.put(ids.get(k), k);
+        }
+        Table t = new Table(ids.size());
+        for (int k = 0; k < ids.size(); k += 1) {
+            Commit c = ObjectStore.readCommit(ids.get(k));
+            t.set(k, c.getID(), position(pos, c.getParent()),
+                  position(pos, c.getParent2()), c.getTimestamp(), 0);
+        }
+        t.computeGenerations();
+        t.write();
+    }
+
+    /** Return the value of ID in POS, or NONE if ID is null or absent. */
+    private static int position(HashMap<String, Integer> pos, String id) {
+        Integer k = id == null ? null : pos.get(id);
+        return k == null ? NONE : k;
+    }
+
+    /** Return my records in a table with room for EXTRA more. */
+    private Table table(int extra) {
+        Table t = new Table(count + extra);
+        for (int k = 0; k < count; k += 1) {
+            t.set(k, id(k), parent(k), parent2(k), time(k), generation(k));
+        }
+        return t;
+    }
+
+    /** The records of a graph being rewritten, in memory. */
+    private static class Table {
+        /** Commit ids. */
+        private final String[] ids;
+        /** Positions of first parents. */
+        private final int[] p1;
+        /** Positions of second parents. */
+        private final int[] p2;
+        /** Timestamps. */
+        private final long[] times;
+        /** Generation numbers. */
+        private final int[] gens;
+
+        /** A table of N records. */
+        Table(int n) {
+            ids = new String[n];
+            p1 = new int[n];
+            p2 = new int[n];
+            times = new long[n];
+            gens = new int[n];
+        }
+
+        /** Set record K to the commit ID with the given fields. */
+        void set(int k, String id, int parent, int parent2, long time,
+                 int gen) {
+            ids[k] = id;
+            p1[k] = parent;
+            p2[k] = parent2;
+            times[k] = time;
+            gens[k] = gen;
+        }
+
+        /**
+         * Fill in every generation number. Parents are visited before
+         * their children with an explicit stack, since a history can be
+         * far deeper than the call stack.
+         */
+        void computeGenerations() {
+            ArrayDeque<Integer> stack = new ArrayDeque<>();
+            for (int k = 0; k < ids.length; k += 1) {
+                stack.push(k);
+                while (!stack.isEmpty()) {
+                    int j = stack.peek();
+                    if (gens[j] != 0) {
+                        stack.pop();
+                        continue;
+                    }
+                    boolean ready = true;
+                    for (int p : new int[] {p1[j], p2[j]}) {
+                        if (p != NONE && gens[p] == 0) {
+                            stack.push(p);
+                            ready = false;
+                        }
+                    }
+                    if (ready) {
+                        stack.pop();
+                        gens[j] = 1 + Math.max(p1[j] == NONE ? 0 : gens[p1[j]],
+                                p2[j] == NONE ? 0 : gens[p2[j]]);
+                    }
+                }
+            }
+        }
+
+        /** Write me to FILE with every record sorted by id. */
+        void write() {
+            Integer[] order = new Integer[ids.length];
+            for (int k = 0; k < order.length; k += 1) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> ids[a].compareTo(ids[b]));
+            int[] moved = new int[order.length];
+            for (int k = 0; k < order.length; k += 1) {
+                moved[order[k]] = k;
+            }
+            try {
+                Path tmp = Durable.tmp(FILE);
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(
+                                tmp)))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(ids.length);
+                    out.writeInt(ids.length);
+                    for (int k : order) {
+                        out.write(Utils.unhex(ids[k]));
+                        out.writeInt(p1[k] == NONE ? NONE : moved[p1[k]]);
+                        out.writeInt(p2[k] == NONE ? NONE : moved[p2[k]]);
+                        out.writeLong(times[k]);
+                        out.writeInt(gens[k]);
+                    }
+                }
+                Durable.move(tmp, FILE);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write commit graph: %s",
+                        excp.getMessage());
+            }
+            graph = null;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A long-running server that executes gitlet commands for the repository
+ * in its working directory, so that each command is spared the start of a
+ * JVM and finds the object caches, packs and commit graph already warm. It
+ * listens on the Unix domain socket SOCKET and serves one connection at a
+ * time, so commands never run concurrently. A client sends the number of
+ * arguments followed by each as a length-prefixed UTF-8 string, then shuts
+ * down its output; the daemon answers with what the command prints on
+ * standard output and closes the connection.
+ *
+ * The repository state is kept between commands and is read again whenever
+ * the files it was read from change, so commands run by a plain gitlet
+ * process between two served ones are seen, and whenever a command fails,
+ * since a failed command leaves the state it was changing unsaved.
+ *
+ * @author Siyan Shen
+ */
+class Daemon {
+
+    /** Socket the daemon listens on. */
+    static final File SOCKET = new File(".gitlet/daemon.sock");
+
+    /** Argument to "daemon" that stops the running daemon. */
+    static final String STOP = "--stop";
+
+    /** Longest argument accepted, in bytes. */
+    static final int MAX_ARG = 1 << 20;
+
+    /** Most arguments accepted in one request. */
+    static final int MAX_ARGS = 1 << 16;
+
+    /** Files the repository state is read from. */
+    private static final File[] STATE = {
+        Gitlet.HISTORY, Index.FILE, Journal.FILE
+    };
+
+    /** The repository state, or null if it must be read again. */
+    private Gitlet gitlet;
+
+    /** Stamps of the files in STATE when GITLET was last saved. */
+    private long[] stamps;
+
+    /**
+     * Serve commands on SOCKET until asked to stop. It is an error for
+     * another daemon to be serving this repository already.
+     */
+    static void serve() throws IOException {
+        if (!new File(".gitlet").isDirectory()) {
+            throw new GitletException("Not in an initialized Gitlet "
+                    + "directory.");
+        }
+        try (SocketChannel other = Client.connect()) {
+            if (other != null) {
+                throw new GitletException("A daemon is already running.");
+            }
+        }
+        Files.deleteIfExists(SOCKET.toPath());
+        try (ServerSocketChannel server =
+                 ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(SOCKET.toPath()));
+            Runtime.getRuntime().addShutdownHook(new Thread(SOCKET::delete));
+            Daemon daemon = new Daemon();
+            boolean running = true;
+            while (running) {
+                try (SocketChannel client = server.accept()) {
+                    running = daemon.serve(client);
+                } catch (IOException excp) {
+                    daemon.gitlet = null;
+                }
+            }
+        } finally {
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Execute the command sent on CLIENT, sending back its output. Returns
+     * false if the command was to stop.
+     */
+    private boolean serve(SocketChannel client) throws IOException {
+        String[] args = readArgs(Channels.newInputStream(client));
+        PrintStream out =
+            new PrintStream(new BufferedOutputStream(
+                                Channels.newOutputStream(client)),
+                            false, StandardCharsets.UTF_8);
+        if (args.length == 2 && args[0].equals("daemon")
+                && args[1].equals(STOP)) {
+            out.println("Daemon stopped.");
+            out.flush();
+            return false;
+        }
+        PrintStream stdout = System.out;
+        System.setOut(out);
+        try {
+            execute(args);
+        } finally {
+            System.setOut(stdout);
+            out.flush();
+        }
+        return true;
+    }
+
+    /** Execute the command ARGS, printing its output on System.out. */
+    private void execute(String[] args) {
+        if (args.length == 0) {
+            System.out.println("Please enter a command.");
+            return;
+        }
+        if (args[0].equals("daemon")) {
+            System.out.println("A daemon is already running.");
+            return;
+        }
+        Pack.reload();
+        CommitGraph.reload();
+        long[] now = stamps();
+        try {
+            if (gitlet == null || !Arrays.equals(now, stamps)) {
+                gitlet = Main.read();
+            }
+            Main.execute(gitlet, args);
+            stamps = stamps();
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+            gitlet = null;
+        } catch (IOException | RuntimeException excp) {
+            System.out.println("Error: " + excp.getMessage());
+            gitlet = null;
+        }
+    }
+
+    /**
+     * Return the modification times, in nanoseconds, and the lengths of
+     * the files in STATE, or -1 for those that are missing.
+     */
+    private static long[] stamps() {
+        long[] result = new long[2 * STATE.length];
+        for (int i = 0; i < STATE.length; i += 1) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(
+                    STATE[i].toPath(), BasicFileAttributes.class);
+                result[2 * i] = attrs.lastModifiedTime()
+                    .to(TimeUnit.NANOSECONDS);
+                result[2 * i + 1] = attrs.size();
+            } catch (IOException excp) {
+                result[2 * i] = result[2 * i + 1] = -1;
+            }
+        }
+        return result;
+    }
+
+    /** Write ARGS on OUT as a request. */
+    static void writeArgs(OutputStream out, String... args)
+            throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(args.length);
+        for (String arg : args) {
+            byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        data.flush();
+    }
+
+    /** Return the arguments of the request read from IN. */
+    static String[] readArgs(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int n = data.readInt();
+        if (n < 0 || n > MAX_ARGS) {
+            throw new IOException("bad request");
+        }
+        String[] args = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            int len = data.readInt();
+            if (len < 0 || len > MAX_ARG) {
+                throw new IOException("bad request");
+            }
+            byte[] bytes = new byte[len];
+            data.readFully(bytes);
+            args[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return args;
+    }
+
+}
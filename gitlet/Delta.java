@@ -0,0 +1,174 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+
+/**
+ * Delta encoding of one byte sequence against another. A delta starts with
+ * the lengths of its base and of its result, and continues with a list of
+ * instructions that either copy a range of the base or insert literal
+ * bytes.
+ *
+ * @author Siyan Shen
+ */
+class Delta {
+
+    /** Instruction copying a range of the base. */
+    static final int COPY = 1;
+
+    /** Instruction inserting literal bytes. */
+    static final int INSERT = 2;
+
+    /** Length of the blocks of the base that are indexed for matching. */
+    static final int BLOCK = 16;
+
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+
+    /** PRIME raised to the power BLOCK - 1, used to roll the hash. */
+    private static final int TOP;
+
+    static {
+        int top = 1;
+        for (int i = 1; i < BLOCK; i += 1) {
+            top *= PRIME;
+        }
+        TOP = top;
+    }
+
+    /** Return a delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int j = 0; j + BLOCK <= base.length; j += BLOCK) {
+            blocks.putIfAbsent(hash(base, j), j);
+        }
+
+        int pending = 0;
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            Integer j = blocks.get(h);
+            if (j != null && same(base, j, target, i, BLOCK)) {
+                int len = BLOCK;
+                while (j + len < base.length && i + len < target.length
+                        && base[j + len] == target[i + len]) {
+                    len += 1;
+                }
+                int back = 0;
+                while (back < i - pending && back < j
+                        && base[j - back - 1] == target[i - back - 1]) {
+                    back += 1;
+                }
+                insert(out, target, pending, i - back);
+                copy(out, j - back, len + back);
+                i += len;
+                pending = i;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+            } else {
+                if (i + BLOCK < target.length) {
+                    h = (h - (target[i] & 0xff) * TOP) * PRIME
+                            + (target[i + BLOCK] & 0xff);
+                }
+                i += 1;
+            }
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Return the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] pos = {0};
+        if (readVarint(delta, pos) != base.length) {
+            throw Utils.error("Delta does not match its base.");
+        }
+        byte[] result = new byte[readVarint(delta, pos)];
+        int n = 0;
+        while (pos[0] < delta.length) {
+            int op = delta[pos[0]];
+            pos[0] += 1;
+            if (op == COPY) {
+                int off = readVarint(delta, pos);
+                int len = readVarint(delta, pos);
+                System.arraycopy(base, off, result, n, len);
+                n += len;
+            } else if (op == INSERT) {
+                int len = readVarint(delta, pos);
+                System.arraycopy(delta, pos[0], result, n, len);
+                pos[0] += len;
+                n += len;
+            } else {
+                throw Utils.error("Corrupt delta.");
+            }
+        }
+        if (n != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Return the hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + (data[k] & 0xff);
+        }
+        return h;
+    }
+
+    /** Return true iff A[I..I+LEN) equals B[J..J+LEN). */
+    private static boolean same(byte[] a, int i, byte[] b, int j, int len) {
+        for (int k = 0; k < len; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Write to OUT an instruction copying LEN bytes of the base at OFF. */
+    private static void copy(ByteArrayOutputStream out, int off, int len) {
+        out.write(COPY);
+        writeVarint(out, off);
+        writeVarint(out, len);
+    }
+
+    /** Write to OUT an instruction inserting DATA[FROM..TO), if nonempty. */
+    private static void insert(ByteArrayOutputStream out, byte[] data,
+                               int from, int to) {
+        if (from < to) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    /** Write the non-negative V to OUT, seven bits per byte. */
+    static void writeVarint(ByteArrayOutputStream out, long v) {
+        while (v >= 0x80) {
+            out.write((int) (v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /** Read a value written by writeVarint from DATA at POS[0]. */
+    static int readVarint(byte[] data, int[] pos) {
+        int v = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = data[pos[0]] & 0xff;
+            pos[0] += 1;
+            v |= (b & 0x7f) << shift;
+            if (b < 0x80) {
+                return v;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,381 @@
+package gitlet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Three-way merge of text files, line by line. Each side is compared with
+ * the version at the split point by Myers' O(ND) difference algorithm,
+ * in its linear-space form, giving the hunks in which that side differs
+ * from it. Hunks of the two sides whose ranges of base lines overlap, or
+ * touch, form one region; other hunks are taken from the side that made
+ * them, and the lines outside all hunks from the base. A region both sides
+ * changed alike is taken as it is; one they changed differently is a
+ * conflict, and only its lines are put between conflict markers, after
+ * the lines the two sides agree on at its start and end are moved out.
+ *
+ * @author Siyan Shen
+ */
+class Diff3 {
+
+    /** Marker before our lines in a conflict. */
+    static final String OURS = "<<<<<<< HEAD\n";
+
+    /** Marker between our lines and theirs in a conflict. */
+    static final String SEPARATOR = "=======\n";
+
+    /** Marker after their lines in a conflict. */
+    static final String THEIRS = ">>>>>>>\n";
+
+    /**
+     * A search for the middle snake gives up, and splits at the furthest
+     * point reached, once it has gone through this many differences or
+     * the square root of the length of the sequences, if that is more.
+     */
+    static final int MIN_COST_LIMIT = 256;
+
+    /** The merged text. */
+    private final StringBuilder text = new StringBuilder();
+
+    /** True iff the merge has a conflict. */
+    private boolean conflict;
+
+    /** Return the merged text. */
+    String text() {
+        return text.toString();
+    }
+
+    /** Return true iff some region could not be merged. */
+    boolean conflicted() {
+        return conflict;
+    }
+
+    /**
+     * Return the merge of OURS and THEIRS, two versions of the text BASE.
+     * Texts that are not made of lines, because they hold a NUL, are a
+     * conflict as a whole.
+     */
+    static Diff3 merge(String base, String ours, String theirs) {
+        if (binary(base) || binary(ours) || binary(theirs)) {
+            return whole(ours, theirs);
+        }
+        Diff3 result = new Diff3();
+        List<String> b = lines(base);
+        List<String> o = lines(ours);
+        List<String> t = lines(theirs);
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] bi = intern(b, ids);
+        List<int[]> mine = diff(bi, intern(o, ids));
+        List<int[]> yours = diff(bi, intern(t, ids));
+
+        int pos = 0;
+        int dOurs = 0, dTheirs = 0;
+        int i = 0, j = 0;
+        while (i < mine.size() || j < yours.size()) {
+            int start = Math.min(
+                i < mine.size() ? mine.get(i)[0] : Integer.MAX_VALUE,
+                j < yours.size() ? yours.get(j)[0] : Integer.MAX_VALUE);
+            int end = start;
+            int oStart = start + dOurs, tStart = start + dTheirs;
+            int i0 = i, j0 = j;
+            while (true) {
+                if (i < mine.size() && mine.get(i)[0] <= end) {
+                    int[] h = mine.get(i);
+                    end = Math.max(end, h[1]);
+                    dOurs += (h[3] - h[2]) - (h[1] - h[0]);
+                    i += 1;
+                } else if (j < yours.size() && yours.get(j)[0] <= end) {
+                    int[] h = yours.get(j);
+                    end = Math.max(end, h[1]);
+                    dTheirs += (h[3] - h[2]) - (h[1] - h[0]);
+                    j += 1;
+                } else {
+                    break;
+                }
+            }
+            result.append(b, pos, start);
+            List<String> os = o.subList(oStart, end + dOurs);
+            List<String> ts = t.subList(tStart, end + dTheirs);
+            if (j == j0 || os.equals(ts)) {
+                result.append(os, 0, os.size());
+            } else if (i == i0) {
+                result.append(ts, 0, ts.size());
+            } else {
+                result.conflict(os, ts);
+            }
+            pos = end;
+        }
+        result.append(b, pos, b.size());
+        return result;
+    }
+
+    /** Return the conflict between the whole texts OURS and THEIRS. */
+    static Diff3 whole(String ours, String theirs) {
+        Diff3 result = new Diff3();
+        result.conflict(ours, theirs);
+        return result;
+    }
+
+    /** Append the lines of LINES from FROM up to TO to my text. */
+    private void append(List<String> lines, int from, int to) {
+        for (String line : lines.subList(from, to)) {
+            text.append(line);
+        }
+    }
+
+    /**
+     * Append the conflict between the lines OURS and THEIRS, leaving the
+     * lines they start and end with alike outside the markers.
+     */
+    private void conflict(List<String> ours, List<String> theirs) {
+        int head = 0;
+        while (head < ours.size() && head < theirs.size()
+                && ours.get(head).equals(theirs.get(head))) {
+            head += 1;
+        }
+        int tail = 0;
+        while (tail < ours.size() - head && tail < theirs.size() - head
+                && ours.get(ours.size() - tail - 1)
+                    .equals(theirs.get(theirs.size() - tail - 1))) {
+            tail += 1;
+        }
+        append(ours, 0, head);
+        conflict(String.join("", ours.subList(head, ours.size() - tail)),
+                 String.join("", theirs.subList(head,
+                                                theirs.size() - tail)));
+        append(ours, ours.size() - tail, ours.size());
+    }
+
+    /** Append the conflict between the texts OURS and THEIRS. */
+    private void conflict(String ours, String theirs) {
+        text.append(OURS).append(ours).append(SEPARATOR).append(theirs)
+            .append(THEIRS);
+        conflict = true;
+    }
+
+    /** Return true iff TEXT holds a NUL character. */
+    private static boolean binary(String text) {
+        return text.indexOf('\0') >= 0;
+    }
+
+    /** Return the lines of TEXT, each with its line terminator, if any. */
+    static List<String> lines(String text) {
+        List<String> result = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int nl = text.indexOf('\n', start);
+            int end = nl < 0 ? text.length() : nl + 1;
+            result.add(text.substring(start, end));
+            start = end;
+        }
+        return result;
+    }
+
+    /**
+     * Return the numbers of LINES, equal lines having equal numbers, as
+     * recorded in IDS.
+     */
+    private static int[] intern(List<String> lines,
+                                HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int k = 0; k < result.length; k += 1) {
+            result[k] = ids.computeIfAbsent(lines.get(k), s -> ids.size());
+        }
+        return result;
+    }
+
+    /**
+     * Return the hunks of a shortest edit script from A to B, in order.
+     * Each is {S0, E0, S1, E1}: the elements of A from S0 up to E0 are
+     * replaced by those of B from S1 up to E1, one of the ranges possibly
+     * empty.
+     */
+    static List<int[]> diff(int[] a, int[] b) {
+        Myers m = new Myers(a, b);
+        m.compare(0, a.length, 0, b.length);
+        List<int[]> result = new ArrayList<>();
+        int x = 0, y = 0;
+        while (x < a.length || y < b.length) {
+            if (x < a.length && y < b.length
+                    && !m.deleted[x] && !m.inserted[y]) {
+                x += 1;
+                y += 1;
+                continue;
+            }
+            int x0 = x, y0 = y;
+            while (x < a.length && m.deleted[x]) {
+                x += 1;
+            }
+            while (y < b.length && m.inserted[y]) {
+                y += 1;
+            }
+            result.add(new int[] {x0, x, y0, y});
+        }
+        return result;
+    }
+
+    /**
+     * Myers' algorithm, finding the elements of two sequences outside a
+     * longest common subsequence by splitting both at the middle snake of
+     * an optimal edit path and recurring on the two halves.
+     */
+    private static class Myers {
+
+        /** The sequences compared. */
+        private final int[] a, b;
+
+        /** Elements of A and B outside the common subsequence. */
+        private final boolean[] deleted, inserted;
+
+        /** Furthest X reached on each diagonal, forward and backward. */
+        private final int[] fwd, bwd;
+
+        /** Compare A with B. */
+        Myers(int[] a, int[] b) {
+            this.a = a;
+            this.b = b;
+            deleted = new boolean[a.length];
+            inserted = new boolean[b.length];
+            fwd = new int[a.length + b.length + 5];
+            bwd = new int[a.length + b.length + 5];
+        }
+
+        /** Mark the differences between A[A0..A1) and B[B0..B1). */
+        void compare(int a0, int a1, int b0, int b1) {
+            while (a0 < a1 && b0 < b1 && a[a0] == b[b0]) {
+                a0 += 1;
+                b0 += 1;
+            }
+            while (a0 < a1 && b0 < b1 && a[a1 - 1] == b[b1 - 1]) {
+                a1 -= 1;
+                b1 -= 1;
+            }
+            if (a0 == a1 || b0 == b1) {
+                Arrays.fill(deleted, a0, a1, true);
+                Arrays.fill(inserted, b0, b1, true);
+                return;
+            }
+            int[] mid = middle(a0, a1, b0, b1);
+            if (mid == null) {
+                Arrays.fill(deleted, a0, a1, true);
+                Arrays.fill(inserted, b0, b1, true);
+                return;
+            }
+            compare(a0, mid[0], b0, mid[1]);
+            compare(mid[0], a1, mid[1], b1);
+        }
+
+        /**
+         * Return {X, Y}, a point on a shortest edit path from (A0, B0) to
+         * (A1, B1) about halfway along it, strictly between its ends, or
+         * null if the two ranges have nothing in common.
+         */
+        private int[] middle(int a0, int a1, int b0, int b1) {
+            int n = a1 - a0, m = b1 - b0;
+            int max = (n + m + 1) / 2;
+            int off = max + 1;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            Arrays.fill(fwd, 0, 2 * off + 1, -1);
+            Arrays.fill(bwd, 0, 2 * off + 1, -1);
+            fwd[off + 1] = 0;
+            bwd[off + 1] = 0;
+            int limit = Math.max(MIN_COST_LIMIT, (int) Math.sqrt(n + m));
+            int fLo = 0, fHi = 0, bLo = 0, bHi = 0;
+            for (int d = 0; d < max; d += 1) {
+                if (d > limit) {
+                    return furthest(a0, b0, n, m, off, d - 1, fLo, fHi);
+                }
+                for (int k = -d + fLo; k <= d - fHi; k += 2) {
+                    int x = next(fwd, off, k, d);
+                    int y = x - k;
+                    while (x < n && y < m && a[a0 + x] == b[b0 + y]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    fwd[off + k] = x;
+                    if (x > n) {
+                        fHi += 2;
+                    } else if (y > m) {
+                        fLo += 2;
+                    } else if (odd && reached(bwd, off, delta - k)
+                               && x + bwd[off + delta - k] >= n) {
+                        return split(a0, b0, x, y, n, m);
+                    }
+                }
+                for (int k = -d + bLo; k <= d - bHi; k += 2) {
+                    int x = next(bwd, off, k, d);
+                    int y = x - k;
+                    while (x < n && y < m
+                           && a[a1 - x - 1] == b[b1 - y - 1]) {
+                        x += 1;
+                        y += 1;
+                    }
+                    bwd[off + k] = x;
+                    if (x > n) {
+                        bHi += 2;
+                    } else if (y > m) {
+                        bLo += 2;
+                    } else if (!odd && reached(fwd, off, delta - k)
+                               && fwd[off + delta - k] + x >= n) {
+                        return split(a0, b0, n - x, m - y, n, m);
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Return the point furthest from (A0, B0), as for split, reached by
+         * the forward paths of D differences on diagonals -D + LO to D - HI
+         * of the N by M box, their X recorded in fwd at offset OFF.
+         */
+        private int[] furthest(int a0, int b0, int n, int m, int off,
+                               int d, int lo, int hi) {
+            int bestX = 0, bestY = 0;
+            for (int k = -d + lo; k <= d - hi; k += 2) {
+                int x = fwd[off + k], y = x - k;
+                if (x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+            return split(a0, b0, bestX, bestY, n, m);
+        }
+
+        /**
+         * Return the X from which the furthest path of D differences on
+         * diagonal K starts its snake, from the furthest X on the
+         * neighbouring diagonals as recorded in V at offset OFF.
+         */
+        private static int next(int[] v, int off, int k, int d) {
+            if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+                return v[off + k + 1];
+            }
+            return v[off + k - 1] + 1;
+        }
+
+        /**
+         * Return true iff V, at offset OFF, records a path on diagonal K
+         * in the current comparison.
+         */
+        private static boolean reached(int[] v, int off, int k) {
+            return k >= -off && k <= off && v[off + k] >= 0;
+        }
+
+        /**
+         * Return the point (A0 + X, B0 + Y), or null if it is at either
+         * end of the N by M box it is in.
+         */
+        private static int[] split(int a0, int b0, int x, int y,
+                                   int n, int m) {
+            if ((x == 0 && y == 0) || (x == n && y == m)) {
+                return null;
+            }
+            return new int[] {a0 + x, b0 + y};
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Crash-safe writes to the repository. A file is never rewritten in place:
+ * it is written to a temporary file beside it, which is then renamed over
+ * it, so a crash leaves either the old or the new contents, never a
+ * mixture. Syncing each file as it is written would make a commit wait
+ * for the disk once per object, so files are only noted as written, and
+ * flush syncs them, and the directories whose entries changed, as one
+ * group. The state is saved once per command, or once per batch, and
+ * flushes the objects written since before it publishes the state that
+ * refers to them: the journal entry or the snapshot is written last, and
+ * synced by itself. A crash before then may leave objects that nothing
+ * refers to, but never a reference to an object that is missing or
+ * incomplete.
+ *
+ * All methods may be called from several threads.
+ *
+ * @author Siyan Shen
+ */
+class Durable {
+
+    /** Most syncs waited for at once. */
+    static final int SYNCS = 16;
+
+    /** Files written since the last flush. */
+    private static final Set<Path> FILES = ConcurrentHashMap.newKeySet();
+
+    /** Directories whose entries changed since the last flush. */
+    private static final Set<Path> DIRS = ConcurrentHashMap.newKeySet();
+
+    /** Return a new temporary file in the directory of FILE. */
+    static Path tmp(File file) throws IOException {
+        Path dir = file.getAbsoluteFile().toPath().getParent();
+        return Files.createTempFile(dir, "." + file.getName() + "-",
+                                    ".tmp");
+    }
+
+    /**
+     * Write the concatenation of CONTENTS, each a byte array, to FILE,
+     * replacing it atomically. The write is synced at the next flush.
+     */
+    static void write(File file, byte[]... contents) throws IOException {
+        Path tmp = tmp(file);
+        try {
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                for (byte[] c : contents) {
+                    out.write(c);
+                }
+            }
+            move(tmp, file);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Rename TMP, a complete file in the directory of FILE, over FILE. The
+     * rename is synced at the next flush.
+     */
+    static void move(Path tmp, File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        FILES.add(target);
+        DIRS.add(target.getParent());
+    }
+
+    /** Note that FILE was changed in place, to be synced at next flush. */
+    static void changed(File file) {
+        Path path = file.getAbsoluteFile().toPath();
+        FILES.add(path);
+        DIRS.add(path.getParent());
+    }
+
+    /**
+     * Sync every file written and every directory changed since the last
+     * flush to the disk, as one group: the files are all synced at once,
+     * so the disk sees them together rather than one after another, and
+     * then each directory once.
+     */
+    static void flush() throws IOException {
+        List<Path> files = new ArrayList<>(FILES);
+        FILES.removeAll(files);
+        List<Path> dirs = new ArrayList<>(DIRS);
+        DIRS.removeAll(dirs);
+        syncAll(files);
+        syncAll(dirs);
+    }
+
+    /** Sync the files or directories PATHS at once, on up to SYNCS threads. */
+    private static void syncAll(List<Path> paths) throws IOException {
+        if (paths.size() <= 1) {
+            for (Path p : paths) {
+                sync(p);
+            }
+            return;
+        }
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(SYNCS, paths.size()));
+        try {
+            List<Future<Void>> done = new ArrayList<>();
+            for (Path p : paths) {
+                done.add(pool.submit(() -> {
+                    sync(p);
+                    return null;
+                }));
+            }
+            for (Future<Void> f : done) {
+                f.get();
+            }
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof IOException) {
+                throw (IOException) excp.getCause();
+            }
+            throw Utils.error("%s", excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while syncing");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Write CONTENTS to FILE as for write, once everything written before
+     * is synced, and sync it at once.
+     */
+    static void publish(File file, byte[]... contents) throws IOException {
+        flush();
+        write(file, contents);
+        flush();
+    }
+
+    /**
+     * Sync the file or directory PATH, if it still exists. Some systems
+     * cannot sync directories; there the rename is as safe as they make
+     * it.
+     */
+    private static void sync(Path path) throws IOException {
+        try (FileChannel chan = FileChannel.open(path,
+                StandardOpenOption.READ)) {
+            chan.force(true);
+        } catch (NoSuchFileException excp) {
+            return;
+        } catch (IOException excp) {
+            if (!Files.isDirectory(path)) {
+                throw excp;
+            }
+        }
+    }
+
+}
@@ -1,11 +1,34 @@
 package gitlet;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.HashSet;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import java.io.Serializable;
 
@@ -13,8 +36,20 @@ import java.io.Serializable;
  * @author Siyan Shen
  */
 public class Gitlet implements Serializable {
-    /** magic number. */
-    static final int M = 40;
+    /** Version of my serialized form. */
+    private static final long serialVersionUID = 1L;
+
+    /** Number of commits global-log reads ahead of the one it writes. */
+    static final int WINDOW = 256;
+
+    /** Size of the buffer global-log writes through. */
+    static final int OUT_BUFFER = 1 << 16;
+
+    /** Fewest digits of an abbreviated commit id. */
+    static final int MIN_ABBREV = 4;
+
+    /** File holding the snapshot of my state. */
+    static final File HISTORY = new File(".gitlet/history.ser");
 
     /** working directory. */
     static final File W = new File(".");
@@ -23,12 +58,9 @@ public class Gitlet implements Serializable {
     private String head;
 
     /**
-     * key: name of the files. val: contents of files.
+     * the staging area, read from its own file when first needed.
      */
-    private TreeMap<String, String> stagedFiles;
-
-    /** files to be removed.*/
-    private HashSet<String> rmFiles;
+    private transient Index index;
     /**
      * name of current branch.
      */
@@ -38,6 +70,17 @@ public class Gitlet implements Serializable {
      */
     private HashSet<Branch> branches;
 
+    /** Heads of the branches, by name, as last saved, or null. */
+    private transient TreeMap<String, String> savedBranches;
+
+    /** Name of the current branch as last saved, or null. */
+    private transient String savedBranch;
+
+    /** Head commit id as last saved, or null. */
+    private transient String savedHead;
+
+    /** Journal whose staging area records are yet to be replayed, or null. */
+    private transient Journal journal;
 
     /**
      * Constructor that initializes all variables.
@@ -46,24 +89,210 @@ public class Gitlet implements Serializable {
         head = null;
         currentBranch = null;
         branches = null;
+    }
 
-        stagedFiles = new TreeMap<>();
-        rmFiles = new HashSet<>();
-
+    /**
+     * A state with head commit HEADID, the branches ALL, of which CURRENT
+     * is checked out, and the staging area STAGE.
+     */
+    Gitlet(String headId, HashSet<Branch> all, Branch current, Index stage) {
+        head = headId;
+        branches = all;
+        currentBranch = current;
+        index = stage;
     }
 
     /**
-     * Saves the current state of Gitlet G.
+     * Saves the changes to the state of Gitlet G since it was read or last
+     * saved, as one entry appended to the journal. Nothing is written if
+     * nothing changed. The state is then saved whole when the staging area
+     * was replaced, or when the journal has grown longer than the
+     * snapshot, and saved whole at once when there is no snapshot yet.
+     * Either way, the objects written before are synced first.
      */
     public static void save(Gitlet g) throws IOException {
-        File savedGitlet = new File(".gitlet/history.ser");
-        if (!savedGitlet.exists()) {
-            savedGitlet.createNewFile();
-            Utils.writeContents(savedGitlet, Utils.serialize(g));
-        } else {
-            Utils.writeContents(savedGitlet, Utils.serialize(g));
+        if (!HISTORY.exists()) {
+            snapshot(g);
+            return;
+        }
+        boolean whole = g.index != null && g.index.replaced();
+        byte[] refs = g.refChanges();
+        byte[] staged = g.index == null ? new byte[0] : g.index.journal();
+        if (refs.length == 0 && staged.length == 0) {
+            return;
+        }
+        Durable.flush();
+        long size = Journal.append(refs, staged);
+        g.mark();
+        if (whole || size > Math.max(Journal.MIN_COMPACT,
+                                     HISTORY.length() + Index.FILE.length())) {
+            snapshot(g);
+        } else if (g.index != null) {
+            g.index.journaled(Files.getLastModifiedTime(
+                Journal.FILE.toPath()).to(TimeUnit.NANOSECONDS));
+        }
+    }
+
+    /**
+     * Save the whole state of G and empty the journal. The snapshot of the
+     * branches is written last, as it is what makes a new repository.
+     */
+    static void snapshot(Gitlet g) throws IOException {
+        if (Journal.FILE.exists()) {
+            g.getIndex();
+        }
+        if (g.index != null) {
+            g.index.write();
+        }
+        Durable.publish(HISTORY, Utils.serialize(g));
+        Journal.clear();
+        g.mark();
+    }
+
+    /**
+     * Apply the records of the journal J to me, which was just read from
+     * the snapshot. Those of the staging area wait until it is read.
+     */
+    void replay(Journal j) throws IOException {
+        DataInputStream in = j.refs();
+        while (in.available() > 0) {
+            int tag = in.readByte();
+            switch (tag) {
+            case Journal.BRANCH:
+                String name = in.readUTF();
+                String id = in.readUTF();
+                Branch b = named(name);
+                if (b == null) {
+                    branches.add(new Branch(name, id));
+                } else {
+                    b.setHead(id);
+                }
+                break;
+            case Journal.DELETE_BRANCH:
+                branches.remove(named(in.readUTF()));
+                break;
+            case Journal.SWITCH:
+                currentBranch = named(in.readUTF());
+                break;
+            case Journal.HEAD:
+                head = in.readUTF();
+                break;
+            default:
+                throw Utils.error("Corrupt journal.");
+            }
+        }
+        journal = j;
+        mark();
+    }
+
+    /**
+     * Return a copy of my state, which changes to me leave as it is, for a
+     * batch to go back to should a command fail. Copying the staging area,
+     * if it was read, takes time proportional to its number of entries.
+     */
+    Gitlet copy() {
+        Gitlet result = new Gitlet();
+        result.head = head;
+        if (branches != null) {
+            result.branches = new HashSet<>();
+            for (Branch b : branches) {
+                Branch c = new Branch(b.getName(), b.getHead());
+                result.branches.add(c);
+                if (b == currentBranch) {
+                    result.currentBranch = c;
+                }
+            }
+        }
+        result.index = index == null ? null : index.copy();
+        result.savedBranches = savedBranches;
+        result.savedBranch = savedBranch;
+        result.savedHead = savedHead;
+        result.journal = journal;
+        return result;
+    }
+
+    /** Return the branch named NAME, or null. */
+    private Branch named(String name) {
+        for (Branch b : branches) {
+            if (b.getName().equals(name)) {
+                return b;
+            }
+        }
+        return null;
+    }
+
+    /** Return the heads of my branches by name. */
+    TreeMap<String, String> branchHeads() {
+        TreeMap<String, String> result = new TreeMap<>();
+        if (branches != null) {
+            for (Branch b : branches) {
+                result.put(b.getName(), b.getHead());
+            }
+        }
+        return result;
+    }
+
+    /** Record my branches and head as saved. */
+    private void mark() {
+        savedBranches = branchHeads();
+        savedBranch = currentBranch == null ? null : currentBranch.getName();
+        savedHead = head;
+    }
+
+    /**
+     * Return the journal records of the changes to my branches and head
+     * since they were last saved.
+     */
+    private byte[] refChanges() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        TreeMap<String, String> heads = branchHeads();
+        for (Map.Entry<String, String> b : heads.entrySet()) {
+            if (!b.getValue().equals(savedBranches.get(b.getKey()))) {
+                out.writeByte(Journal.BRANCH);
+                out.writeUTF(b.getKey());
+                out.writeUTF(b.getValue());
+            }
+        }
+        for (String name : savedBranches.keySet()) {
+            if (!heads.containsKey(name)) {
+                out.writeByte(Journal.DELETE_BRANCH);
+                out.writeUTF(name);
+            }
+        }
+        if (!currentBranch.getName().equals(savedBranch)) {
+            out.writeByte(Journal.SWITCH);
+            out.writeUTF(currentBranch.getName());
+        }
+        if (!head.equals(savedHead)) {
+            out.writeByte(Journal.HEAD);
+            out.writeUTF(head);
         }
+        out.flush();
+        return bytes.toByteArray();
+    }
 
+    /**
+     * Returns the staging area. A repository that has none yet gets one
+     * in which the head commit's files are clean.
+     */
+    public Index getIndex() {
+        if (index == null) {
+            if (Index.FILE.exists() || head == null) {
+                index = Index.read();
+            } else {
+                index = Index.of(realcommit(head).getTree());
+            }
+            if (journal != null) {
+                try {
+                    index.replay(journal.index(), journal.stamp());
+                } catch (IOException excp) {
+                    throw Utils.error("Corrupt journal.");
+                }
+                journal = null;
+            }
+        }
+        return index;
     }
 
 
@@ -72,84 +301,104 @@ public class Gitlet implements Serializable {
      */
     public void init() throws IOException {
         File dir = new File(".gitlet");
-        if (!dir.exists()) {
-            dir.mkdir();
-            Commit initial = new Commit(this, null,
-                    "initial commit", true, false);
-            initial.setID();
-            new File(".gitlet/objects").mkdir();
-            head = initial.getID();
-            File newcommit = new File(".gitlet/objects/"
-                    + head + ".ser");
-            newcommit.createNewFile();
-            Utils.writeObject(newcommit, initial);
-            Branch master = new Branch("master", initial.getID());
-            new File(".gitlet/index").mkdir();
-            File newbranch = new File(".gitlet/index/master.ser");
-            newbranch.createNewFile();
-            Utils.writeObject(newbranch, master);
-            new File(".gitlet/blobs").mkdir();
-            branches = new HashSet<>();
-            branches.add(master);
-            currentBranch = master;
-        } else {
-            System.out.println("A gitlet version control system already exists "
-                    + "in the current directory.");
+        if (dir.exists()) {
+            throw new GitletException("A gitlet version control system "
+                    + "already exists in the current directory.");
         }
+        dir.mkdir();
+        ObjectStore.stamp();
+        Commit initial = new Commit(this, null,
+                "initial commit", true, null);
+        ObjectStore.OBJECTS.mkdir();
+        head = initial.getID();
+        ObjectStore.writeCommit(initial);
+        CommitGraph.add(initial);
+        MessageIndex.add(initial);
+        Branch master = new Branch("master", initial.getID());
+        new File(".gitlet/index").mkdir();
+        File newbranch = new File(".gitlet/index/master.ser");
+        newbranch.createNewFile();
+        Utils.writeObject(newbranch, master);
+        new File(".gitlet/blobs").mkdir();
+        branches = new HashSet<>();
+        branches.add(master);
+        currentBranch = master;
+        index = Index.of(initial.getTree());
     }
 
     /**
-     * Add a file FILENAME to the staging area. If the current working version
-     * of the file is identical to the version in the current commit,
+     * Add the files PATHS to the staging area. A path naming a directory,
+     * such as ".", stands for every file under it. If the current working
+     * version of a file is identical to the version in the current commit,
      * do not stage it to be added, and remove it from the staging area
      * if it is already there (as can happen when a file is changed,
      * added, and then changed back). If the file had been marked to
-     * be removed, delete that mark.
-     */
-    public void addFile(String filename) {
-        if (!(new File(filename).exists())) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        }
-        String key = filename;
-        String val = Utils.readContentsAsString(new File(filename));
-        if (rmFiles.contains(filename)) {
-            rmFiles.remove(filename);
-        }
-        File headcommit = new File(String.format("%s%s%s", ".gitlet/objects/",
-                head, ".ser"));
-        Commit realhead = Utils.readObject(headcommit, Commit.class);
-
-        if (realhead.getMyBlobs().keySet().contains(filename)) {
-            File file = new File(String.format("%s%s%s", ".gitlet/blobs/",
-                    realhead.getMyBlobs().get(filename), ".ser"));
-            if (val.equals(Utils.readContentsAsString(file))) {
-                if (stagedFiles.containsKey(filename)) {
-                    stagedFiles.keySet().remove(filename);
+     * be removed, delete that mark. Files are hashed in parallel.
+     */
+    public void add(String... paths) {
+        TreeSet<String> files = new TreeSet<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (!file.exists()) {
+                throw new GitletException("File does not exist.");
+            }
+            String name = workingPath(path);
+            if (file.isDirectory()) {
+                String prefix = name.isEmpty() ? "" : name + Tree.SEP;
+                for (String f : Utils.workingFiles(file)) {
+                    files.add(prefix + f);
                 }
-                return;
+            } else {
+                files.add(name);
+            }
+        }
+        String[] names = files.toArray(new String[0]);
+        String[] ids = new String[names.length];
+        Index.Entry[] stats = new Index.Entry[names.length];
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            pool.invoke(new HashTask(names, getIndex(), ids, stats,
+                                     0, names.length));
+        } finally {
+            pool.shutdown();
+        }
+        for (int i = 0; i < names.length; i += 1) {
+            Index.Entry tracked = getIndex().get(names[i]);
+            if (tracked == null || !ids[i].equals(tracked.getBlob())
+                    || !getIndex().fresh(names[i], stats[i])) {
+                getIndex().stage(names[i], ids[i], stats[i]);
             }
         }
-        stagedFiles.put(key, val);
     }
 
     /**
-     * Commit with message MSG, CONFLICT, P2.
+     * Return PATH relative to the working directory, without "." or ".."
+     * components, its directories separated by Tree.SEP: the name the
+     * staging area knows it by, or "" for the working directory itself.
+     * It is an error for PATH to be outside the working directory.
      */
-    public void commitCmnd(String msg, boolean conflict, String p2)
-            throws IOException {
-        Commit newhead = new Commit(this, head, msg, false, conflict);
-        newhead.setID();
-        if (conflict) {
-            newhead.setParent2(p2);
+    static String workingPath(String path) {
+        Path root = W.toPath().toAbsolutePath().normalize();
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        if (!file.startsWith(root)) {
+            throw new GitletException("File is outside the working "
+                    + "directory.");
         }
-        head = newhead.getID();
-
-        File object = new File(".gitlet/objects/" + head + ".ser");
-
-        object.createNewFile();
+        return root.relativize(file).toString()
+            .replace(File.separator, Tree.SEP);
+    }
 
-        Utils.writeObject(object, newhead);
+    /**
+     * Commit with message MSG and, for merges, second parent P2.
+     */
+    public void commitCmnd(String msg, String p2)
+            throws IOException {
+        Commit newhead = new Commit(this, head, msg, false, p2);
+        head = newhead.getID();
+        ObjectStore.writeCommit(newhead);
+        CommitGraph.add(newhead);
+        MessageIndex.add(newhead);
+        getIndex().committed();
 
         currentBranch.setHead(head);
         File branch = new File(String.format("%s%s%s", ".gitlet/index/",
@@ -166,19 +415,14 @@ public class Gitlet implements Serializable {
      * it unless it is tracked in the current commit).
      */
     public void removeFile(String filename) {
-        File headcommit = new File(String.format("%s%s%s", ".gitlet/objects/",
-                head, ".ser"));
-        Commit realhead = Utils.readObject(headcommit, Commit.class);
-        if (!stagedFiles.keySet().contains(filename)
-                && !realhead.getMyBlobs().keySet().contains(filename)) {
-            System.out.println(" No reason to remove the file.");
-            System.exit(0);
-        }
-        if (stagedFiles.keySet().contains(filename)) {
-            stagedFiles.keySet().remove(filename);
-        }
-        if (realhead.getMyBlobs().containsKey(filename)) {
-            rmFiles.add(filename);
+        Index.Entry tracked = getIndex().get(filename);
+        if (tracked == null) {
+            throw new GitletException(" No reason to remove the file.");
+        }
+        if (tracked.getBase() == null) {
+            getIndex().unstage(filename);
+        } else {
+            getIndex().remove(filename);
             File unwantedfile = new File(filename);
             if (unwantedfile.exists()) {
                 unwantedfile.delete();
@@ -195,59 +439,118 @@ public class Gitlet implements Serializable {
      * found in merge commits.
      * For merge commits (those that have two parent commits), add a line
      * just below the first.
+     * The walk follows the commit graph; each commit is read only to be
+     * printed.
      */
     public void log() {
-        File headcommit = new File(String.format("%s%s%s", ".gitlet/objects/",
-                head, ".ser"));
-        Commit realhead = Utils.readObject(headcommit, Commit.class);
-        Commit p = realhead;
-        while (p != null) {
-            p.printInfo();
-            if (p.getParent() != null) {
-                File parentcommit = new File(String.format("%s%s%s",
-                        ".gitlet/objects/", p.getParent(), ".ser"));
-                Commit realparent = Utils.readObject(parentcommit,
-                        Commit.class);
-                p = realparent;
-            } else {
-                p = null;
-            }
+        CommitGraph graph = CommitGraph.get();
+        for (int p = CommitGraph.position(head); p != CommitGraph.NONE;
+             p = graph.parent(p)) {
+            realcommit(graph.id(p)).printInfo();
         }
     }
 
     /**
      * global-log command.
      * displays information about all commits ever made. The order of the
-     * commits does not matter.
+     * commits does not matter, unless DATEORDER, when they are listed
+     * newest first. Commits are read and formatted on a pool of threads,
+     * at most WINDOW ahead of the one being written, and written in order
+     * through one buffered writer, so memory stays bounded however many
+     * commits there are.
      */
-    public void globalLog() {
-        File dir = new File(".gitlet/objects");
-        File[] directoryListing = dir.listFiles();
-        for (File child : directoryListing) {
-            Commit realchild = Utils.readObject(child, Commit.class);
-            realchild.printInfo();
+    public void globalLog(boolean dateOrder) throws IOException {
+        List<String> ids;
+        if (dateOrder) {
+            CommitGraph graph = CommitGraph.get();
+            Integer[] order = new Integer[graph.size()];
+            for (int k = 0; k < order.length; k += 1) {
+                order[k] = k;
+            }
+            Arrays.sort(order, (a, b) -> graph.time(a) != graph.time(b)
+                        ? Long.compare(graph.time(b), graph.time(a))
+                        : Integer.compare(a, b));
+            ids = new ArrayList<>();
+            for (int k : order) {
+                ids.add(graph.id(k));
+            }
+        } else {
+            ids = ObjectStore.commitIds();
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        ArrayDeque<Future<String>> window = new ArrayDeque<>();
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out),
+                                        OUT_BUFFER);
+        try {
+            Iterator<String> next = ids.iterator();
+            while (next.hasNext() || !window.isEmpty()) {
+                while (next.hasNext() && window.size() < WINDOW) {
+                    String id = next.next();
+                    window.add(pool.submit(() -> realcommit(id).info()));
+                }
+                out.write(window.remove().get());
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw Utils.error("Cannot read commits: %s", excp.getMessage());
+        } finally {
+            pool.shutdownNow();
+            out.flush();
         }
-
     }
 
     /**
      * find command.
      * Prints out the ids of all commits that have the given commit
-     * message MSG, one per line.
+     * message MSG, one per line. Only the commits the message index
+     * offers are read.
      */
     public void find(String msg) {
-        File dir = new File(".gitlet/objects");
-        File[] directoryListing = dir.listFiles();
         boolean exist = false;
-        for (File child : directoryListing) {
-            Commit realchild = Utils.readObject(child, Commit.class);
-            if (realchild.getMsg().equals(msg)) {
-                System.out.println(realchild.getID());
+        for (String id : MessageIndex.exact(msg)) {
+            if (realcommit(id).getMsg().equals(msg)) {
+                System.out.println(id);
                 exist = true;
             }
         }
         if (!exist) {
-            System.out.println("Found no commit with that message.");
+            throw new GitletException("Found no commit with that message.");
+        }
+    }
+
+    /**
+     * log --grep command.
+     * Displays, newest first, every commit whose message contains all the
+     * words in TERMS, ignoring case. Candidates come from the message
+     * index, starting from the word with the fewest commits, so only
+     * commits that may match are read.
+     */
+    public void grep(String... terms) {
+        TreeSet<String> words = new TreeSet<>();
+        for (String term : terms) {
+            words.addAll(MessageIndex.words(term));
+        }
+        List<String> candidates = null;
+        for (String word : words) {
+            List<String> ids = MessageIndex.word(word);
+            if (candidates == null || ids.size() < candidates.size()) {
+                candidates = ids;
+            }
+        }
+        if (candidates == null) {
+            return;
+        }
+        List<Commit> found = new ArrayList<>();
+        for (String id : candidates) {
+            Commit c = realcommit(id);
+            if (MessageIndex.words(c.getMsg()).containsAll(words)) {
+                found.add(c);
+            }
+        }
+        found.sort((a, b) -> Long.compare(b.getTimestamp(),
+                                          a.getTimestamp()));
+        for (Commit c : found) {
+            c.printInfo();
         }
     }
 
@@ -255,9 +558,17 @@ public class Gitlet implements Serializable {
      * status command.
      * Displays what branches currently exist, and marks the current branch
      * with a *. Also displays what files have been staged or marked for
-     * untracking.
+     * untracking, which tracked files were changed or deleted without being
+     * staged, and which files are untracked. If PORCELAIN, prints instead
+     * one line per path that is not clean, for scripts.
      */
-    public void status() {
+    public void status(boolean porcelain) {
+        TreeMap<String, String> unstaged = unstaged();
+        TreeSet<String> untracked = untrackedFiles();
+        if (porcelain) {
+            porcelain(unstaged, untracked);
+            return;
+        }
         System.out.println("=== Branches ===");
         File dir = new File(".gitlet/index");
         File[] directoryListing = dir.listFiles();
@@ -275,22 +586,99 @@ public class Gitlet implements Serializable {
         }
 
         System.out.println("\n=== Staged Files ===");
-        String[] stage = Utils.sortset(stagedFiles.keySet());
-        for (String filename : stage) {
+        for (String filename : getIndex().staged()) {
             System.out.println(filename);
         }
 
         System.out.println("\n=== Removed Files ===");
-        String[] r = Utils.sorthashset(rmFiles);
-        for (String filename : r) {
+        for (String filename : getIndex().removed()) {
+            System.out.println(filename);
+        }
+
+        System.out.println("\n=== Modifications Not Staged For Commit ===");
+        for (Map.Entry<String, String> e : unstaged.entrySet()) {
+            System.out.printf("%s (%s)%n", e.getKey(), e.getValue());
+        }
+
+        System.out.println("\n=== Untracked Files ===");
+        for (String filename : untracked) {
             System.out.println(filename);
         }
-        System.out.println("");
+        System.out.println();
+    }
 
-        System.out.println("=== Modifications Not Staged For Commit ===\n");
-        System.out.println("=== Untracked Files ===\n");
+    /**
+     * Print, for status --porcelain, a line "XY PATH" for every path that
+     * is staged or in UNSTAGED, and "?? PATH" for every path in UNTRACKED.
+     * X says how the staged version differs from the head commit and Y how
+     * the working file differs from the staged version: A for added, M for
+     * modified, D for deleted, and blank for unchanged.
+     */
+    private void porcelain(TreeMap<String, String> unstaged,
+                           TreeSet<String> untracked) {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Index.Entry> p
+                 : getIndex().entries().entrySet()) {
+            String path = p.getKey();
+            Index.Entry e = p.getValue();
+            char x = !e.changed() ? ' ' : e.getBase() == null ? 'A'
+                    : e.getBlob() == null ? 'D' : 'M';
+            String change = unstaged.get(path);
+            char y = change == null ? ' '
+                    : Character.toUpperCase(change.charAt(0));
+            if (x != ' ' || y != ' ') {
+                out.append(x).append(y).append(' ').append(path)
+                        .append('\n');
+            }
+        }
+        for (String path : untracked) {
+            out.append("?? ").append(path).append('\n');
+        }
+        System.out.print(out);
+    }
+
+    /**
+     * Returns the files whose working copies differ from what is staged
+     * for them, mapped to "modified" or "deleted". A file is read only if
+     * its size, times or inode changed since it was last staged, checked
+     * out or found unchanged; files found unchanged have their attributes
+     * refreshed in the staging area, so the next status skips them.
+     */
+    private TreeMap<String, String> unstaged() {
+        TreeMap<String, String> result = new TreeMap<>();
+        Index idx = getIndex();
+        for (Map.Entry<String, Index.Entry> p : idx.entries().entrySet()) {
+            String path = p.getKey();
+            String blob = p.getValue().getBlob();
+            if (blob == null) {
+                continue;
+            }
+            File file = new File(path);
+            Index.Entry stat = Index.stat(file);
+            if (stat == null || !file.isFile()) {
+                result.put(path, "deleted");
+            } else if (idx.fresh(path, stat)) {
+                continue;
+            } else if (Utils.sha1(file).equals(blob)) {
+                idx.refresh(path, stat);
+            } else {
+                result.put(path, "modified");
+            }
+        }
+        return result;
     }
 
+    /**
+     * Returns the working files that are neither tracked nor staged,
+     * including files staged for removal that were created again.
+     */
+    private TreeSet<String> untrackedFiles() {
+        TreeSet<String> result = Utils.workingFiles(W);
+        Index idx = getIndex();
+        result.removeIf(path -> idx.get(path) != null
+                        && idx.get(path).getBlob() != null);
+        return result;
+    }
 
     /**
      * check out file with FILENAME.
@@ -305,27 +693,13 @@ public class Gitlet implements Serializable {
      **/
     public void checkoutfile(String filename) throws IOException {
 
-        File headcommit = new File(".gitlet/objects/" + head + ".ser");
-        Commit realhead = Utils.readObject(headcommit, Commit.class);
+        Commit realhead = realcommit(head);
 
         if (!realhead.getMyBlobs().keySet().contains(filename)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw new GitletException("File does not exist in that commit.");
         }
 
-        String blobid = realhead.getMyBlobs().get(filename);
-        File newfile = new File(".gitlet/blobs/" + blobid + ".ser");
-        String newcontent = Utils.readContentsAsString(newfile);
-
-        File oldfile = new File(filename);
-        if (oldfile.exists()) {
-            Utils.writeContents(oldfile, newcontent);
-
-        } else {
-
-            oldfile.createNewFile();
-            Utils.writeContents(oldfile, newcontent);
-        }
+        restore(filename, realhead.getMyBlobs().get(filename));
 
     }
 
@@ -347,52 +721,140 @@ public class Gitlet implements Serializable {
     public void checkoutcommit(String commitid1, String filename)
             throws IOException {
 
-        String commitid = null;
-        File dir = new File(".gitlet/objects");
-
+        String commitid = resolve(commitid1);
+        if (commitid == null) {
+            throw new GitletException("No commit with that id exists.");
+        }
+        Commit realtarget = realcommit(commitid);
 
-        File[] files = dir.listFiles();
-        boolean exist = false;
-        for (File file : files) {
+        if (!realtarget.getMyBlobs().keySet().contains(filename)) {
+            throw new GitletException("File does not exist in that commit.");
+        }
+        restore(filename, realtarget.getMyBlobs().get(filename));
+    }
 
-            String shortid = file.getName().
-                    substring(0, commitid1.length());
 
-            if (shortid.equals(commitid1)) {
+    /**
+     * Return the full id of the commit whose id starts with PREFIX, or null
+     * if there is none or PREFIX is shorter than MIN_ABBREV. If there are
+     * several, say so and exit.
+     */
+    private String resolve(String prefix) {
+        if (!prefix.matches("[0-9a-f]{" + MIN_ABBREV + ","
+                            + Utils.UID_LENGTH + "}")) {
+            return null;
+        }
+        List<String> ids = CommitGraph.resolve(prefix);
+        if (ids.size() > 1) {
+            throw new GitletException("Commit id is ambiguous.");
+        }
+        return ids.isEmpty() ? null : ids.get(0);
+    }
 
-                commitid = file.getName().substring(0, M);
-                exist = true;
-                break;
-            }
+    /**
+     * Write the contents of the blob BLOBID to the working file FILENAME,
+     * making the directories it is in first.
+     */
+    private void restore(String filename, String blobid) {
+        File file = new File(filename);
+        mkparents(file);
+        BlobStore.copyTo(blobid, file);
+    }
 
+    /** Make the directories FILE is in, if they are missing. */
+    private static void mkparents(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
         }
+    }
 
-        if (!exist) {
-            System.out.println("No commit with that id exists.");
-            return;
+    /**
+     * Make the working directory and the staging area those of the commit
+     * TARGET. Only the files that need it are written or deleted: those
+     * that differ between the head commit and TARGET, found by comparing
+     * their trees, those that are staged, and those modified since they
+     * were staged. The others keep their contents and modification times.
+     * It is an error for an untracked file to be where TARGET has one.
+     * Shared copies of linked files that nothing links to any longer are
+     * deleted afterwards.
+     */
+    private void checkoutTree(Commit target) {
+        Index idx = getIndex();
+        TreeMap<String, String[]> diff = new TreeMap<>();
+        Tree.diff(realcommit(head).getTree(), target.getTree(), "", diff);
+        TreeMap<String, String> plan = new TreeMap<>();
+        for (Map.Entry<String, String[]> d : diff.entrySet()) {
+            plan.put(d.getKey(), d.getValue()[1]);
         }
-
-        File targetcommit = new File(".gitlet/objects/"
-                + commitid + ".ser");
-        Commit realtarget = Utils.readObject(targetcommit, Commit.class);
-
-        if (!realtarget.getMyBlobs().keySet().contains(filename)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+        for (Map.Entry<String, Index.Entry> e : idx.entries().entrySet()) {
+            String path = e.getKey();
+            Index.Entry entry = e.getValue();
+            if (plan.containsKey(path)) {
+                continue;
+            }
+            if (entry.changed()) {
+                plan.put(path, entry.getBase());
+            } else if (!clean(path, entry)) {
+                plan.put(path, entry.getBlob());
+            }
+        }
+        for (Map.Entry<String, String> p : plan.entrySet()) {
+            if (p.getValue() != null && inTheWay(p.getKey())) {
+                throw new GitletException("There is an untracked file in "
+                        + "the way; delete it or add it first.");
+            }
+        }
+        TreeMap<String, Index.Entry> written = Materializer.apply(plan);
+        for (Map.Entry<String, String> p : plan.entrySet()) {
+            idx.reset(p.getKey(), p.getValue(), written.get(p.getKey()));
         }
-        String blobid = realtarget.getMyBlobs().get(filename);
-        File newfile = new File(".gitlet/blobs/" + blobid + ".ser");
-        String newcontent = Utils.readContentsAsString(newfile);
-        File oldfile = new File(filename);
-        if (oldfile.exists()) {
-            Utils.writeContents(oldfile, newcontent);
+        BlobStore.pruneLinked();
+    }
 
-        } else {
-            oldfile.createNewFile();
-            Utils.writeContents(oldfile, newcontent);
+    /**
+     * Return true iff writing a file at PATH would overwrite or delete an
+     * untracked working file: one at PATH, one under PATH if it is a
+     * directory, or one where a directory containing PATH is to be.
+     */
+    private boolean inTheWay(String path) {
+        Index idx = getIndex();
+        File file = new File(path);
+        if (file.isDirectory()) {
+            for (String f : Utils.workingFiles(file)) {
+                if (!idx.tracks(path + Tree.SEP + f)) {
+                    return true;
+                }
+            }
+        } else if (file.exists() && !idx.tracks(path)) {
+            return true;
+        }
+        for (int k = path.indexOf(Tree.SEP); k >= 0;
+             k = path.indexOf(Tree.SEP, k + 1)) {
+            String dir = path.substring(0, k);
+            if (new File(dir).isFile() && !idx.tracks(dir)) {
+                return true;
+            }
         }
+        return false;
     }
 
+    /**
+     * Return true iff the working file PATH, tracked by the staging area
+     * entry ENTRY, holds the blob staged for it. Its attributes tell when
+     * it is known to; otherwise it is read.
+     */
+    private boolean clean(String path, Index.Entry entry) {
+        File file = new File(path);
+        Index.Entry stat = Index.stat(file);
+        if (stat == null || !file.isFile()) {
+            return false;
+        }
+        if (getIndex().fresh(path, stat)) {
+            return true;
+        }
+        return entry.getBlob().equals(Utils.sha1(file));
+    }
 
     /**
      * check out branch with BRANCHNAME.
@@ -415,8 +877,8 @@ public class Gitlet implements Serializable {
      */
     public void checkoutbranch(String branchname) throws IOException {
         if (currentBranch.getName().equals(branchname)) {
-            System.out.println("No need to checkout the current branch.");
-            return;
+            throw new GitletException(
+                    "No need to checkout the current branch.");
         }
         boolean exist = false;
         Branch targetbranch = new Branch(null, null);
@@ -428,43 +890,24 @@ public class Gitlet implements Serializable {
             }
         }
         if (!exist) {
-            System.out.println("No such branch exists.");
-            return;
+            throw new GitletException("No such branch exists.");
         }
-        Commit targetcommit = targetbranch.getCommit();
-        Commit currentcommit = currentBranch.getCommit();
-        File dir = new File(".");
-        File[] directoryListing = dir.listFiles();
-        for (File child : directoryListing) {
-            String filename = child.getName();
-            if (!currentcommit.getMyBlobs().keySet().contains(filename)
-                    && !filename.equals(".gitlet")
-                    && !rmFiles.contains(filename)
-                    && !stagedFiles.containsKey(filename)) {
-                System.out.println("There is an untracked file "
-                        + "in the way; delete it or add it first.");
-                return;
-            }
-        }
-        stagedFiles.clear();
-        rmFiles.clear();
-        for (String child : targetcommit.getMyBlobs().keySet()) {
-            checkoutcommit(targetcommit.getID(), child);
-        }
-
-        for (File child : directoryListing) {
-            if (!targetcommit.getMyBlobs().keySet().
-                    contains(child.getName())
-                    && !child.getName().equals(".gitlet")) {
-                child.delete();
-            }
-        }
-
+        checkoutTree(targetbranch.getCommit());
         currentBranch = targetbranch;
         head = currentBranch.getHead();
     }
 
 
+    /**
+     * repack.
+     * Gathers all loose commits, trees and blobs into a single pack with a
+     * sorted index, removing the loose files it replaces.
+     */
+    public void repack() throws IOException {
+        int n = Pack.repack();
+        System.out.println("Packed " + n + " objects.");
+    }
+
     /**
      * branch.
      * Creates a new branch with BRANCHNAME, and points it at the current
@@ -477,8 +920,8 @@ public class Gitlet implements Serializable {
     public void branch(String branchname) throws IOException {
         for (Branch branch : branches) {
             if (branch.getName().equals(branchname)) {
-                System.out.println("A branch with that name already exists");
-                System.exit(0);
+                throw new GitletException(
+                        "A branch with that name already exists");
             }
         }
         Branch newbranch = new Branch(branchname, head);
@@ -500,8 +943,7 @@ public class Gitlet implements Serializable {
      */
     public void rmbranch(String rmdbranch) {
         if (currentBranch.getName().equals(rmdbranch)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw new GitletException("Cannot remove the current branch.");
         }
         boolean exist = false;
         for (Branch branch : branches) {
@@ -512,8 +954,8 @@ public class Gitlet implements Serializable {
             }
         }
         if (!exist) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException(
+                    "A branch with that name does not exist.");
         }
     }
 
@@ -536,189 +978,129 @@ public class Gitlet implements Serializable {
      * doing anything else.
      */
     public void reset(String commitid1) throws IOException {
-        String commitid = null;
-        File dir = new File(".gitlet/objects");
-        File[] files = dir.listFiles();
-        boolean exist = false;
-        for (File file : files) {
-            if (file.getName().substring(0, commitid1.length())
-                    .equals(commitid1)) {
-                commitid = file.getName().substring(0, M);
-                exist = true;
-                break;
-            }
-
-        }
-        if (!exist) {
-            System.out.println("No commit with that id exists.");
-            return;
-        }
-        File targetcommit = new File(".gitlet/objects/"
-                + commitid + ".ser");
-        Commit realtarget = Utils.readObject(targetcommit, Commit.class);
-        Commit currentcommit = currentBranch.getCommit();
-
-        File dir1 = new File(".");
-        File[] directoryListing = dir1.listFiles();
-        if (directoryListing != null) {
-            for (File child : directoryListing) {
-                String filename = child.getName();
-                if (!currentcommit.getMyBlobs().keySet().contains(filename)
-                        && !filename.equals(".gitlet")
-                        && !stagedFiles.containsKey(filename)
-                        && !rmFiles.contains(filename)) {
-
-                    System.out.println("There is an untracked file "
-                            + "in the way; delete it or add it first.");
-                    return;
-                }
-            }
-        }
-        stagedFiles.clear();
-        rmFiles.clear();
-        for (String blobs : realtarget.getMyBlobs().keySet()) {
-            checkoutcommit(commitid1, blobs);
-        }
-        if (directoryListing != null) {
-            for (File file : directoryListing) {
-                if (!realtarget.getMyBlobs().keySet()
-                        .contains(file.getName())
-                        && !file.getName().equals(".gitlet")) {
-                    file.delete();
-                }
-            }
+        String commitid = resolve(commitid1);
+        if (commitid == null) {
+            throw new GitletException("No commit with that id exists.");
         }
+        checkoutTree(realcommit(commitid));
         currentBranch.setHead(commitid);
         head = commitid;
     }
 
 
-    /** MERGEBRANCH. */
-    public void premerge1(String mergebranch) throws IOException {
-        File[] directoryListing = W.listFiles();
-        for (File child : directoryListing) {
-            if (untracked(child.getName())) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it or add it first.");
-                System.exit(0);
-            }
-        }
-    }
-    /** ME, YOU, GCD, return conflict. */
-    public boolean mergepart1(Commit me, Commit you, Commit gcd)
-            throws IOException {
-        boolean result1 = false;
-        for (String file : you.getMyBlobs().keySet()) {
-            if (!same(file, you, gcd) && same(file, me, gcd)) {
-                checkoutcommit(you.getID(), file);
-                stagedFiles.put(file, you.getMyBlobs().get(file));
-                continue;
-            }
-            if ((same(file, you, gcd) && !same(file, me, gcd))
-                    || same(file, you, me)) {
-                continue;
-            }
-            if (!same(file, you, gcd) && !exist(file, me)) {
-                result1 = true;
-                File f2 = new File(".gitlet/blobs/"
-                        + you.getBlobid(file) + ".ser");
-                String v1 = "";
-                String v2 = Utils.readContentsAsString(f2);
-                String result = "<<<<<<< HEAD\n" + v1
-                        + "=======\n" + v2 + ">>>>>>>\n";
-                File working = new File(file);
-                if (working.exists()) {
-                    Utils.writeContents(working, result);
-                } else {
-                    working.createNewFile();
-                    Utils.writeContents(working, result);
-                }
-                stagedFiles.put(file, result);
-                if (rmFiles.contains(file)) {
-                    rmFiles.remove(file);
-                }
+    /**
+     * Check that no untracked working file is at one of the PATHS a merge
+     * is to write or delete.
+     */
+    public void premerge1(Set<String> paths) {
+        for (String path : untrackedFiles()) {
+            if (paths.contains(path)) {
+                throw new GitletException("There is an untracked file in the "
+                        + "way; delete it or add it first.");
             }
         }
-        return result1;
     }
     /**
      * Merge.
      * Merges files from the given branch MERGEBRANCH
-     * into the current branch.
+     * into the current branch. Only files that changed since the split
+     * point on one side or the other are looked at, found by comparing
+     * trees, so directories untouched on both sides are never opened.
+     * If the current branch is an ancestor of the given one, it is moved
+     * to it and its files checked out instead, and nothing is committed.
      */
     public void merge(String mergebranch) throws IOException {
         preMerge(mergebranch);
         Branch target = target(mergebranch);
         Commit me = realcommit(head);
         Commit you = target.getCommit();
-        premerge1(mergebranch);
         Commit gcd = splitpoint(me, you);
-        boolean conflict = mergepart1(me, you, gcd);
-        Set<String> meblobs = Utils.copyhashset(me.getMyBlobs().keySet());
-        for (String file : meblobs) {
-            if (same(file, gcd, you) && !same(file, gcd, me)) {
-                continue;
-            }
-            if (same(file, gcd, me) && !exist(file, you)) {
-                File dir = new File(file);
-                dir.delete();
-                rmFiles.add(file);
-                if (stagedFiles.containsKey(file)) {
-                    stagedFiles.remove(file);
-                }
-                continue;
+        if (gcd != null && gcd.getID().equals(me.getID())) {
+            checkoutTree(you);
+            head = you.getID();
+            currentBranch.setHead(head);
+            System.out.println("Current branch fast-forwarded.");
+            return;
+        }
+        TreeMap<String, String[]> ours = new TreeMap<>();
+        TreeMap<String, String[]> theirs = new TreeMap<>();
+        Tree.diff(gcd.getTree(), me.getTree(), "", ours);
+        Tree.diff(gcd.getTree(), you.getTree(), "", theirs);
+        TreeMap<String, String[]> changed = new TreeMap<>();
+        for (String file : theirs.keySet()) {
+            String g = theirs.get(file)[0];
+            String m = ours.containsKey(file) ? ours.get(file)[1] : g;
+            String y = theirs.get(file)[1];
+            if (!Objects.equals(m, y)) {
+                changed.put(file, new String[] {g, m, y});
             }
-            String v1, v2 = "";
-            if (!same(file, you, gcd) && !same(file, me, gcd)
-                    && !same(file, you, me)) {
+        }
+        premerge1(changed.keySet());
+        boolean conflict = false;
+        for (Map.Entry<String, String[]> c : changed.entrySet()) {
+            String[] v = c.getValue();
+            if (mergefile(c.getKey(), v[0], v[1], v[2])) {
                 conflict = true;
-                File f1 = new File(".gitlet/blobs/"
-                        + me.getBlobid(file) + ".ser");
-                v1 = Utils.readContentsAsString(f1);
-                if (exist(file, you)) {
-                    File f2 = new File(".gitlet/blobs/"
-                            + you.getBlobid(file) + ".ser");
-                    v2 = Utils.readContentsAsString(f2);
-                }
-                String result = "<<<<<<< HEAD\n" + v1
-                        + "=======\n" + v2 + ">>>>>>>\n";
-                File working = new File(file);
-                if (working.exists()) {
-                    Utils.writeContents(working, result);
-                } else {
-                    working.createNewFile();
-                    Utils.writeContents(working, result);
-                }
-                stagedFiles.put(file, result);
-                if (rmFiles.contains(file)) {
-                    rmFiles.remove(file);
-                }
             }
         }
         commitCmnd("Merged " + mergebranch + " into "
-                + currentBranch.getName() + ".", conflict, you.getID());
+                + currentBranch.getName() + ".", you.getID());
         if (conflict) {
             System.out.println("Encountered a merge conflict.");
         }
     }
 
+    /**
+     * Merge one FILE whose blob ids are G at the split point, M in the
+     * current commit and Y in the given commit, each null if the file is
+     * absent there. If both sides changed it, their changes are merged
+     * line by line, as by Diff3, a file absent at the split point being
+     * merged as if it were empty there. Return true iff some of their
+     * changes conflict, or one side deleted the file the other changed.
+     */
+    private boolean mergefile(String file, String g, String m, String y)
+            throws IOException {
+        if (Objects.equals(m, g)) {
+            if (y == null) {
+                new File(file).delete();
+                getIndex().remove(file);
+            } else {
+                restore(file, y);
+                getIndex().stage(file, y, Index.stat(new File(file)));
+            }
+            return false;
+        }
+        if (Objects.equals(y, g) || Objects.equals(m, y)) {
+            return false;
+        }
+        String v1 = m == null ? "" : BlobStore.getAsString(m);
+        String v2 = y == null ? "" : BlobStore.getAsString(y);
+        Diff3 merged;
+        if (m == null || y == null) {
+            merged = Diff3.whole(v1, v2);
+        } else {
+            merged = Diff3.merge(g == null ? "" : BlobStore.getAsString(g),
+                                 v1, v2);
+        }
+        String result = merged.text();
+        mkparents(new File(file));
+        Utils.writeContents(new File(file), result);
+        getIndex().stage(file, BlobStore.put(result),
+                Index.stat(new File(file)));
+        return merged.conflicted();
+    }
+
     /** return if a file with NAME is untracked. */
     public boolean untracked(String name) {
-        Commit commit = currentBranch.getCommit();
-        return (!commit.getMyBlobs().containsKey(name)
-                && !stagedFiles.containsKey(name)
-                && !rmFiles.contains(name)
-                && !name.equals(".gitlet"));
+        return !getIndex().tracks(name) && !name.equals(".gitlet");
     }
     /** prerequisites of merging the given branch MERGEBRANCH. */
     public void preMerge(String mergebranch) {
-        if (!stagedFiles.isEmpty() || !rmFiles.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+        if (getIndex().hasChanges()) {
+            throw new GitletException("You have uncommitted changes.");
         }
         if (currentBranch.getName().equals(mergebranch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw new GitletException("Cannot merge a branch with itself.");
         }
     }
 
@@ -734,86 +1116,39 @@ public class Gitlet implements Serializable {
             }
         }
         if (!exist) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw new GitletException(
+                    "A branch with that name does not exist.");
         }
         return target;
     }
 
     /**
-     * helper to find a splitpoint.
+     * helper to find a splitpoint: the best common ancestor of C1 and C2
+     * over all parents, as found by CommitGraph.mergeBase. That is C1
+     * itself when C1 is an ancestor of C2.
      *
      * @param c1 my head commit
      * @param c2 given commit
      * @return common ancester
      */
     public Commit splitpoint(Commit c1, Commit c2) {
-        HashSet<String> c1history = new HashSet<>();
-        HashSet<String> c2history = new HashSet<>();
-        Commit p1 = c1;
-        Commit p2 = c2;
+        CommitGraph graph = CommitGraph.get();
+        int k1 = CommitGraph.position(c1.getID());
+        int k2 = CommitGraph.position(c2.getID());
+        int base = graph.mergeBase(k1, k2);
 
-        while (p1 != null) {
-
-            c1history.add(p1.getID());
-            Commit pointerparent = realcommit(p1.getParent());
-            p1 = pointerparent;
-        }
-
-
-        while (p2 != null) {
-            c2history.add(p2.getID());
-            Commit pointerparent = realcommit(p2.getParent());
-            p2 = pointerparent;
-        }
-
-        if (c1history.contains(c2.getID())) {
-            System.out.println(" Given branch is an"
+        if (base == k2) {
+            throw new GitletException(" Given branch is an"
                     + " ancestor of the current branch.");
-            System.exit(0);
-        }
-
-        if (c2history.contains(c1.getID())) {
-            System.out.println("Current branch fast-forwarded.");
-            head = c2.getID();
-            currentBranch.setHead(head);
-            System.exit(0);
-        }
-        Commit p = c2;
-        while (p != null) {
-            if (c1history.contains(p.getID())) {
-                return p;
-            }
-            p = realcommit(p.getParent());
-        }
-        return null;
-    }
-
-    /**
-     * helper method to return whether ME have a FILE or not.
-     */
-    public boolean exist(String file, Commit me) {
-        if (me.getMyBlobs().isEmpty()) {
-            return false;
         }
-        return me.getMyBlobs().keySet().contains(file);
 
-    }
-
-    /**
-     * helper method to return whether a given file FILE is at the same status
-     * in ME and one of my ANCESTOR.
-     */
-    public boolean same(String file, Commit me, Commit ancestor) {
-
-        if ((!exist(file, me)) && (!exist(file, ancestor))) {
-            return true;
+        if (base == k1) {
+            return c1;
         }
-        if (exist(file, me) && exist(file, ancestor)) {
-            return me.getMyBlobs().get(file)
-                    .equals(ancestor.getMyBlobs().get(file));
+        if (base == CommitGraph.NONE) {
+            return null;
         }
-        return false;
+        return realcommit(graph.id(base));
     }
 
     /** using input ARGS to determine input.*/
@@ -831,26 +1166,7 @@ public class Gitlet implements Serializable {
      * helper method to return a real commit from a given ID.
      */
     public Commit realcommit(String id) {
-        if (id == null) {
-            return null;
-        }
-        File dir = new File(".gitlet/objects/" + id + ".ser");
-        Commit result = Utils.readObject(dir, Commit.class);
-        return result;
-    }
-
-    /**
-     * return files to be removed.
-     */
-    public HashSet<String> getRmFiles() {
-        return rmFiles;
-    }
-
-    /**
-     * return files to be staged.
-     */
-    public TreeMap<String, String> getStagedFiles() {
-        return stagedFiles;
+        return ObjectStore.readCommit(id);
     }
 
 }
@@ -0,0 +1,84 @@
+package gitlet;
+
+import java.io.File;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hashes a range of working files on a fork-join pool, splitting the range
+ * in halves until it is small enough to do directly. Contents not yet in
+ * the store are stored as blobs on the way, so the caller only has to
+ * update the staging area.
+ *
+ * @author Siyan Shen
+ */
+class HashTask extends RecursiveAction {
+
+    /** Ranges at most this long are not split further. */
+    static final int THRESHOLD = 16;
+
+    /** Version of my serialized form. */
+    private static final long serialVersionUID = 1L;
+
+    /** Paths of the files to hash. */
+    private final String[] paths;
+
+    /** The staging area, which is only read. */
+    private final transient Index index;
+
+    /** Receives the blob id of each file of PATHS. */
+    private final String[] ids;
+
+    /** Receives the attributes each file of PATHS had when it was read. */
+    private final Index.Entry[] stats;
+
+    /** Start of my range of PATHS. */
+    private final int lo;
+
+    /** End of my range of PATHS. */
+    private final int hi;
+
+    /**
+     * A task hashing the files PATHS[LO..HI) that INDEX tracks or could
+     * track, storing the results in IDS and STATS at the same positions.
+     */
+    HashTask(String[] paths, Index index, String[] ids, Index.Entry[] stats,
+             int lo, int hi) {
+        this.paths = paths;
+        this.index = index;
+        this.ids = ids;
+        this.stats = stats;
+        this.lo = lo;
+        this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+        if (hi - lo <= THRESHOLD) {
+            for (int i = lo; i < hi; i += 1) {
+                hash(i);
+            }
+        } else {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new HashTask(paths, index, ids, stats, lo, mid),
+                      new HashTask(paths, index, ids, stats, mid, hi));
+        }
+    }
+
+    /**
+     * Hash the file PATHS[I]. A file whose attributes show it unchanged
+     * since it was staged is not read.
+     */
+    private void hash(int i) {
+        File file = new File(paths[i]);
+        Index.Entry stat = Index.stat(file);
+        stats[i] = stat;
+        Index.Entry tracked = index.get(paths[i]);
+        if (tracked != null && tracked.getBlob() != null
+                && index.fresh(paths[i], stat)) {
+            ids[i] = tracked.getBlob();
+            return;
+        }
+        ids[i] = BlobStore.put(file);
+    }
+
+}
@@ -0,0 +1,537 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The staging area, kept on disk in a compact binary file. There is one
+ * entry for every file that is tracked by the head commit or staged. An
+ * entry records the blob the file will have in the next commit (null if it
+ * is staged for removal), the blob it has in the head commit (null if it
+ * is new), and the size, times and inode the working file had when that
+ * blob was taken from it. Contents never pass through here: add writes the
+ * blob to the object store at once.
+ *
+ * @author Siyan Shen
+ */
+class Index {
+
+    /** File holding the index. */
+    static final File FILE = new File(".gitlet/stage");
+
+    /** Magic number at the start of the index file. */
+    static final int MAGIC = 0x47535447;
+
+    /** Version of the index format. */
+    static final int VERSION = 1;
+
+    /** What the index knows about one path. */
+    static class Entry {
+        /** Blob for the next commit, or null if staged for removal. */
+        private String blob;
+        /** Blob in the head commit, or null if untracked there. */
+        private String base;
+        /** Size of the working file. */
+        private long size;
+        /** Modification time of the working file, in nanoseconds. */
+        private long mtime;
+        /** Status-change time of the working file, in nanoseconds. */
+        private long ctime;
+        /** Inode number of the working file, or 0 if unknown. */
+        private long ino;
+
+        /** Returns the blob for the next commit. */
+        String getBlob() {
+            return blob;
+        }
+
+        /** Returns the blob in the head commit. */
+        String getBase() {
+            return base;
+        }
+
+        /** Return true iff this entry differs from the head commit. */
+        boolean changed() {
+            return !Objects.equals(blob, base);
+        }
+
+        /** Record the attributes of the working file as STAT. */
+        void setStat(Entry stat) {
+            size = stat.size;
+            mtime = stat.mtime;
+            ctime = stat.ctime;
+            ino = stat.ino;
+        }
+
+        /** Return true iff my recorded attributes equal those of STAT. */
+        boolean sameStat(Entry stat) {
+            return stat != null && size == stat.size && mtime == stat.mtime
+                    && ctime == stat.ctime && ino == stat.ino;
+        }
+    }
+
+    /** key: path. val: entry. */
+    private final TreeMap<String, Entry> entries = new TreeMap<>();
+
+    /** True iff I changed since I was read. */
+    private boolean dirty;
+
+    /**
+     * Modification time of FILE, or of the journal, when I was last read or
+     * written, in nanoseconds, or 0 if neither existed.
+     */
+    private long stamp;
+
+    /** True iff I was made from a tree rather than read from FILE. */
+    private boolean replaced;
+
+    /** Paths whose entries changed since I was last saved. */
+    private final TreeSet<String> touched = new TreeSet<>();
+
+    /** Journal records of my changes before the last commit. */
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+    /** Return the index stored in FILE, or an empty one if none is. */
+    static Index read() {
+        Index result = new Index();
+        if (!FILE.exists()) {
+            return result;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(
+                        FILE.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw Utils.error("Corrupt staging area.");
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                String path = readPath(in);
+                result.entries.put(path, readEntry(in));
+            }
+            result.stamp = nanos(Files.getLastModifiedTime(FILE.toPath()));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read staging area: %s",
+                    excp.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Return a copy of me, which changes to me leave as it is. It takes
+     * time proportional to my number of entries.
+     */
+    Index copy() {
+        Index result = new Index();
+        for (Map.Entry<String, Entry> p : entries.entrySet()) {
+            Entry e = p.getValue();
+            Entry c = new Entry();
+            c.blob = e.blob;
+            c.base = e.base;
+            c.setStat(e);
+            result.entries.put(p.getKey(), c);
+        }
+        result.dirty = dirty;
+        result.stamp = stamp;
+        result.replaced = replaced;
+        result.touched.addAll(touched);
+        result.log.writeBytes(log.toByteArray());
+        return result;
+    }
+
+    /** Return an index in which every file of the tree TREE is clean. */
+    static Index of(String tree) {
+        Index result = new Index();
+        TreeMap<String, String> files = new TreeMap<>();
+        Tree.flatten(tree, "", files);
+        for (Map.Entry<String, String> f : files.entrySet()) {
+            Entry e = new Entry();
+            e.blob = e.base = f.getValue();
+            result.entries.put(f.getKey(), e);
+        }
+        result.dirty = true;
+        result.replaced = true;
+        return result;
+    }
+
+    /** Return true iff I was made from a tree rather than read. */
+    boolean replaced() {
+        return replaced;
+    }
+
+    /**
+     * Apply the journal records read from IN, which was last modified at
+     * STAMP, to me.
+     */
+    void replay(DataInputStream in, long stamp) throws IOException {
+        while (in.available() > 0) {
+            int tag = in.readByte();
+            switch (tag) {
+            case Journal.PUT:
+                String path = readPath(in);
+                entries.put(path, readEntry(in));
+                break;
+            case Journal.DROP:
+                entries.remove(readPath(in));
+                break;
+            case Journal.COMMITTED:
+                commit();
+                break;
+            case Journal.CLEAR:
+                entries.clear();
+                break;
+            default:
+                throw Utils.error("Corrupt journal.");
+            }
+            dirty = true;
+        }
+        this.stamp = Math.max(this.stamp, stamp);
+    }
+
+    /**
+     * Return the journal records of my changes since I was last saved,
+     * and forget them.
+     */
+    byte[] journal() {
+        if (replaced) {
+            log.reset();
+            log.write(Journal.CLEAR);
+            touched.addAll(entries.keySet());
+            replaced = false;
+        }
+        flush();
+        byte[] result = log.toByteArray();
+        log.reset();
+        return result;
+    }
+
+    /**
+     * Record that my changes were appended to the journal, which was then
+     * modified at STAMP.
+     */
+    void journaled(long stamp) {
+        this.stamp = Math.max(this.stamp, stamp);
+    }
+
+    /** Move the records of the entries of the touched paths into LOG. */
+    private void flush() {
+        try {
+            DataOutputStream out = new DataOutputStream(log);
+            for (String path : touched) {
+                Entry e = entries.get(path);
+                if (e == null) {
+                    out.writeByte(Journal.DROP);
+                    writePath(out, path);
+                } else {
+                    out.writeByte(Journal.PUT);
+                    writePath(out, path);
+                    writeEntry(out, e);
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error journaling staging area.");
+        }
+        touched.clear();
+    }
+
+    /** Write me to FILE if I differ from it. */
+    void write() {
+        touched.clear();
+        log.reset();
+        replaced = false;
+        if (!dirty) {
+            return;
+        }
+        try {
+            Path tmp = Durable.tmp(FILE);
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> p : entries.entrySet()) {
+                writePath(out, p.getKey());
+                writeEntry(out, p.getValue());
+            }
+            out.close();
+            Durable.move(tmp, FILE);
+            stamp = nanos(Files.getLastModifiedTime(FILE.toPath()));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write staging area: %s",
+                    excp.getMessage());
+        }
+        dirty = false;
+    }
+
+    /** Return the entry for PATH, or null. */
+    Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /** Return true iff PATH is tracked, staged or staged for removal. */
+    boolean tracks(String path) {
+        return entries.containsKey(path);
+    }
+
+    /** Return true iff something is staged for addition or removal. */
+    boolean hasChanges() {
+        for (Entry e : entries.values()) {
+            if (e.changed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Return the changes to make to the head commit: paths mapped to their
+     * new blob ids, or to null for paths to remove.
+     */
+    TreeMap<String, String> changes() {
+        TreeMap<String, String> result = new TreeMap<>();
+        for (Map.Entry<String, Entry> p : entries.entrySet()) {
+            if (p.getValue().changed()) {
+                result.put(p.getKey(), p.getValue().blob);
+            }
+        }
+        return result;
+    }
+
+    /** Return the paths staged for addition, in order. */
+    TreeSet<String> staged() {
+        TreeSet<String> result = new TreeSet<>();
+        for (Map.Entry<String, Entry> p : entries.entrySet()) {
+            Entry e = p.getValue();
+            if (e.blob != null && e.changed()) {
+                result.add(p.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Return the paths staged for removal, in order. */
+    TreeSet<String> removed() {
+        TreeSet<String> result = new TreeSet<>();
+        for (Map.Entry<String, Entry> p : entries.entrySet()) {
+            if (p.getValue().blob == null) {
+                result.add(p.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Return the tracked paths and their entries, in order. */
+    TreeMap<String, Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Stage BLOB as the next version of PATH, whose working file has the
+     * attributes STAT, or null if unknown.
+     */
+    void stage(String path, String blob, Entry stat) {
+        Entry e = entries.computeIfAbsent(path, k -> new Entry());
+        e.blob = blob;
+        if (stat != null) {
+            e.setStat(stat);
+        } else {
+            e.setStat(new Entry());
+        }
+        touched.add(path);
+        dirty = true;
+    }
+
+    /** Undo any staging of PATH. */
+    void unstage(String path) {
+        Entry e = entries.get(path);
+        if (e == null) {
+            return;
+        }
+        if (e.base == null) {
+            entries.remove(path);
+        } else {
+            e.blob = e.base;
+        }
+        touched.add(path);
+        dirty = true;
+    }
+
+    /** Stage PATH, which must be in the head commit, for removal. */
+    void remove(String path) {
+        Entry e = entries.get(path);
+        if (e == null || e.base == null) {
+            entries.remove(path);
+        } else {
+            e.blob = null;
+            e.setStat(new Entry());
+        }
+        touched.add(path);
+        dirty = true;
+    }
+
+    /**
+     * Return true iff the working file of PATH, which has the attributes
+     * STAT, is known to hold the blob staged for it without reading it:
+     * its attributes are those recorded, and it was last modified before I
+     * was written. A file modified in the same clock tick as the write
+     * could have changed without changing its attributes, so it must be
+     * read.
+     */
+    boolean fresh(String path, Entry stat) {
+        Entry e = entries.get(path);
+        return e != null && e.sameStat(stat) && stat.mtime < stamp;
+    }
+
+    /**
+     * Record that PATH now has working-file attributes STAT. If the file
+     * was not fresh I am rewritten, so that a file found unchanged is not
+     * read again.
+     */
+    void refresh(String path, Entry stat) {
+        Entry e = entries.get(path);
+        if (e != null && stat != null && !fresh(path, stat)) {
+            e.setStat(stat);
+            touched.add(path);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Make BLOB, or nothing if it is null, both the committed and the
+     * staged version of PATH, whose working file has the attributes STAT.
+     */
+    void reset(String path, String blob, Entry stat) {
+        if (blob == null) {
+            entries.remove(path);
+        } else {
+            Entry e = entries.computeIfAbsent(path, k -> new Entry());
+            e.blob = e.base = blob;
+            e.setStat(stat != null ? stat : new Entry());
+        }
+        touched.add(path);
+        dirty = true;
+    }
+
+    /** Record that the staged changes were committed. */
+    void committed() {
+        flush();
+        log.write(Journal.COMMITTED);
+        commit();
+        dirty = true;
+    }
+
+    /** Make the staged version of each path its committed version. */
+    private void commit() {
+        entries.values().removeIf(e -> e.blob == null);
+        for (Entry e : entries.values()) {
+            e.base = e.blob;
+        }
+    }
+
+    /** Return the attributes of FILE, or null if it does not exist. */
+    static Entry stat(File file) {
+        Path path = file.toPath();
+        Entry result = new Entry();
+        try {
+            Map<String, Object> attrs = Files.readAttributes(path,
+                    "unix:size,lastModifiedTime,ctime,ino",
+                    LinkOption.NOFOLLOW_LINKS);
+            result.size = (Long) attrs.get("size");
+            result.mtime = nanos((FileTime) attrs.get("lastModifiedTime"));
+            result.ctime = nanos((FileTime) attrs.get("ctime"));
+            result.ino = (Long) attrs.get("ino");
+        } catch (UnsupportedOperationException excp) {
+            try {
+                BasicFileAttributes attrs = Files.readAttributes(path,
+                        BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                result.size = attrs.size();
+                result.mtime = nanos(attrs.lastModifiedTime());
+                result.ctime = nanos(attrs.creationTime());
+            } catch (IOException excp2) {
+                return null;
+            }
+        } catch (IOException excp) {
+            return null;
+        }
+        return result;
+    }
+
+    /** Return TIME in nanoseconds. */
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+
+    /** Write PATH to OUT. */
+    private static void writePath(DataOutputStream out, String path)
+            throws IOException {
+        byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Read a path written by writePath from IN. */
+    private static String readPath(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Write the entry E to OUT. */
+    private static void writeEntry(DataOutputStream out, Entry e)
+            throws IOException {
+        writeId(out, e.blob);
+        writeId(out, e.base);
+        out.writeLong(e.size);
+        out.writeLong(e.mtime);
+        out.writeLong(e.ctime);
+        out.writeLong(e.ino);
+    }
+
+    /** Read an entry written by writeEntry from IN. */
+    private static Entry readEntry(DataInputStream in) throws IOException {
+        Entry e = new Entry();
+        e.blob = readId(in);
+        e.base = readId(in);
+        e.size = in.readLong();
+        e.mtime = in.readLong();
+        e.ctime = in.readLong();
+        e.ino = in.readLong();
+        return e;
+    }
+
+    /** Write the possibly null ID to OUT. */
+    private static void writeId(DataOutputStream out, String id)
+            throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null) {
+            out.write(Utils.unhex(id));
+        }
+    }
+
+    /** Read an id written by writeId from IN. */
+    private static String readId(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        byte[] raw = new byte[Pack.ID_BYTES];
+        in.readFully(raw);
+        return Utils.hex(raw);
+    }
+
+}
@@ -0,0 +1,212 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * The log of the changes made to the repository state since it was last
+ * saved whole. The state is saved whole, as a snapshot, in history.ser,
+ * which holds the branches, and in the staging area's file; each command
+ * that changes it then only appends one entry here, holding records of the
+ * branches it moved, created or deleted, the branch it switched to, and the
+ * paths it staged, unstaged or removed. Reading the state replays the
+ * entries over the snapshot. Once the log grows longer than the snapshot,
+ * the state is saved whole again and the log is emptied.
+ *
+ * An entry is framed by its length and a CRC-32 of its contents, so that
+ * an entry left incomplete by a crash is recognized and ignored; it is cut
+ * off when the next entry is appended. Every record sets part of the state
+ * to a value given in full, so replaying the log over a snapshot already
+ * containing some of it gives the same state: the snapshot can be written
+ * before the log is emptied.
+ *
+ * @author Siyan Shen
+ */
+class Journal {
+
+    /** File holding the log. */
+    static final File FILE = new File(".gitlet/journal");
+
+    /** Magic number at the start of FILE. */
+    static final int MAGIC = 0x474a524e;
+
+    /** Version of the format of FILE. */
+    static final int VERSION = 1;
+
+    /** Length of the header: magic and version. */
+    static final int HEADER = 8;
+
+    /** Length of the frame of an entry: length and CRC. */
+    static final int FRAME = 8;
+
+    /** The log is never compacted while it is shorter than this. */
+    static final long MIN_COMPACT = 64 << 10;
+
+    /** Record: a branch, given by name, points at a commit id. */
+    static final int BRANCH = 1;
+
+    /** Record: the branch with a name was deleted. */
+    static final int DELETE_BRANCH = 2;
+
+    /** Record: the branch with a name is the current one. */
+    static final int SWITCH = 3;
+
+    /** Record: the head is a commit id. */
+    static final int HEAD = 4;
+
+    /** Record: the index entry of a path is as given. */
+    static final int PUT = 5;
+
+    /** Record: a path has no index entry. */
+    static final int DROP = 6;
+
+    /** Record: the staged changes were committed. */
+    static final int COMMITTED = 7;
+
+    /** Record: the staging area has no entries. */
+    static final int CLEAR = 8;
+
+    /**
+     * Length of the complete entries of FILE as last read or written, or
+     * -1 if unknown.
+     */
+    private static long end = -1;
+
+    /** The records of the entries of FILE: those of the branches ... */
+    private final ByteArrayOutputStream refs = new ByteArrayOutputStream();
+
+    /** ... and those of the staging area. */
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+    /** Modification time of FILE when read, in nanoseconds, or 0. */
+    private long stamp;
+
+    /** Return the records of the complete entries of FILE. */
+    static Journal read() {
+        Journal result = new Journal();
+        end = 0;
+        if (!FILE.exists()) {
+            return result;
+        }
+        try {
+            byte[] log = Files.readAllBytes(FILE.toPath());
+            ByteBuffer buf = ByteBuffer.wrap(log);
+            if (log.length < HEADER || buf.getInt() != MAGIC
+                    || buf.getInt() != VERSION) {
+                throw Utils.error("Corrupt journal.");
+            }
+            end = HEADER;
+            while (buf.remaining() >= FRAME) {
+                int len = buf.getInt();
+                int crc = buf.getInt();
+                if (len < 4 || len > buf.remaining()
+                        || crc != crc(log, buf.position(), len)) {
+                    break;
+                }
+                int refsLen = buf.getInt();
+                if (refsLen < 0 || refsLen > len - 4) {
+                    break;
+                }
+                result.refs.write(log, buf.position(), refsLen);
+                result.index.write(log, buf.position() + refsLen,
+                                   len - 4 - refsLen);
+                buf.position(buf.position() + len - 4);
+                end = buf.position();
+            }
+            result.stamp = Files.getLastModifiedTime(FILE.toPath())
+                .to(TimeUnit.NANOSECONDS);
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read journal: %s", excp.getMessage());
+        }
+        return result;
+    }
+
+    /** Return a stream of the branch records I hold. */
+    DataInputStream refs() {
+        return new DataInputStream(
+            new ByteArrayInputStream(refs.toByteArray()));
+    }
+
+    /** Return a stream of the staging area records I hold. */
+    DataInputStream index() {
+        return new DataInputStream(
+            new ByteArrayInputStream(index.toByteArray()));
+    }
+
+    /** Return the modification time of FILE when I was read. */
+    long stamp() {
+        return stamp;
+    }
+
+    /**
+     * Append an entry holding the branch records REFS and the staging area
+     * records INDEX to FILE, cutting off any incomplete entry first, and
+     * sync it. The caller must have flushed what the entry refers to, so
+     * that it never refers to something a crash could lose. Return the
+     * new length of FILE.
+     */
+    static long append(byte[] refs, byte[] index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeInt(refs.length);
+        out.write(refs);
+        out.write(index);
+        ByteBuffer entry = ByteBuffer.wrap(bytes.toByteArray());
+        int len = entry.limit() - FRAME;
+        entry.putInt(0, len);
+        entry.putInt(4, crc(entry.array(), FRAME, len));
+        boolean created;
+        try (FileChannel chan = FileChannel.open(FILE.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long at = chan.size();
+            created = at == 0;
+            if (at < HEADER) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                chan.truncate(0);
+                chan.write(header, 0);
+                at = HEADER;
+            } else if (end >= HEADER && at > end) {
+                chan.truncate(end);
+                at = end;
+            }
+            while (entry.hasRemaining()) {
+                at += chan.write(entry, at);
+            }
+            chan.force(false);
+            end = at;
+        }
+        if (created) {
+            Durable.changed(FILE);
+            Durable.flush();
+        }
+        return end;
+    }
+
+    /** Empty FILE, once the state it logs has been saved whole. */
+    static void clear() throws IOException {
+        Files.deleteIfExists(FILE.toPath());
+        end = 0;
+    }
+
+    /** Return the CRC-32 of the LEN bytes of DATA starting at OFF. */
+    private static int crc(byte[] data, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+
+}
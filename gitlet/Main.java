@@ -2,6 +2,11 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
 /** Driver class for Gitlet, the tiny stupid version-control system.
  *  @author Siyan Shen
@@ -15,65 +20,150 @@ public class Main {
             System.out.println("Please enter a command.");
             System.exit(0);
         }
-        Gitlet g = read();
-        checkAllInput(args);
+        if (Boolean.getBoolean(ObjectCache.STATS)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                System.err.println(ObjectStore.CACHE);
+                System.err.println(BlobStore.CACHE);
+            }));
+        }
+        if (args[0].equals("daemon")) {
+            daemon(args);
+            System.exit(0);
+        }
+        if (args[0].equals(Batch.OPTION)) {
+            batch(args);
+            System.exit(0);
+        }
         try {
-            switch (args[0]) {
-            case "init":
-                g.init();
-                break;
-            case "add":
-                g.addFile(args[1]);
-                break;
-            case "commit":
-                g.commitCmnd(args[1], false, null);
-                break;
-            case "rm":
-                g.removeFile(args[1]);
-                break;
-            case "log":
-                g.log();
-                break;
-            case "global-log":
-                g.globalLog();
-                break;
-            case "find":
-                g.find(args[1]);
-                break;
-            case "status":
-                g.status();
-                break;
-            case "checkout":
-                g.checkout(args);
-                break;
-            case "branch":
-                g.branch(args[1]);
-                break;
-            case "rm-branch":
-                g.rmbranch(args[1]);
-                break;
-            case "reset":
-                g.reset(args[1]);
-                break;
-            case "merge":
-                g.merge(args[1]);
-                break;
-            default:
-            }
-            Gitlet.save(g);
-        } catch (IOException e) {
+            execute(read(), args);
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (IOException excp) {
             System.exit(0);
         }
         System.exit(0);
     }
 
+    /**
+     * Run the command ARGS against the repository state G, printing its
+     * output on System.out, and save G afterwards. Errors that end the
+     * command are thrown as GitletExceptions, whose messages are to be
+     * printed, and G is then left unsaved.
+     */
+    static void execute(Gitlet g, String... args) throws IOException {
+        run(g, args);
+        Gitlet.save(g);
+    }
+
+    /**
+     * Run the command ARGS against the repository state G, as for execute,
+     * but leave G unsaved.
+     */
+    static void run(Gitlet g, String... args) throws IOException {
+        checkAllInput(args);
+        switch (args[0]) {
+        case "init":
+            g.init();
+            break;
+        case "add":
+            g.add(Arrays.copyOfRange(args, 1, args.length));
+            break;
+        case "commit":
+            g.commitCmnd(args[1], null);
+            break;
+        case "rm":
+            g.removeFile(args[1]);
+            break;
+        case "log":
+            if (args.length > 1) {
+                g.grep(Arrays.copyOfRange(args, 2, args.length));
+            } else {
+                g.log();
+            }
+            break;
+        case "global-log":
+            g.globalLog(args.length > 1);
+            break;
+        case "find":
+            g.find(args[1]);
+            break;
+        case "status":
+            g.status(args.length > 1);
+            break;
+        case "checkout":
+            g.checkout(args);
+            break;
+        case "branch":
+            g.branch(args[1]);
+            break;
+        case "rm-branch":
+            g.rmbranch(args[1]);
+            break;
+        case "reset":
+            g.reset(args[1]);
+            break;
+        case "merge":
+            g.merge(args[1]);
+            break;
+        case "repack":
+            g.repack();
+            break;
+        default:
+        }
+    }
+
+    /**
+     * Run the commands in the script named by ARGS "--batch FILE", or on
+     * the standard input if FILE is "-".
+     */
+    static void batch(String... args) {
+        try {
+            if (args.length != 2) {
+                throw new GitletException("Incorrect operands.");
+            }
+            if (args[1].equals("-")) {
+                Batch.run(new InputStreamReader(System.in,
+                                                StandardCharsets.UTF_8));
+            } else {
+                Batch.run(Files.newBufferedReader(Paths.get(args[1]),
+                                                  StandardCharsets.UTF_8));
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (IOException excp) {
+            System.out.println("Cannot read script: " + excp.getMessage());
+        }
+    }
+
+    /**
+     * Start a daemon serving this repository, or with ARGS "daemon --stop"
+     * stop the one running.
+     */
+    static void daemon(String... args) {
+        try {
+            if (args.length == 2 && args[1].equals(Daemon.STOP)) {
+                Client.main(args);
+            } else if (args.length == 1) {
+                Daemon.serve();
+            } else {
+                System.out.println("Incorrect operands.");
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        } catch (IOException excp) {
+            System.out.println("Daemon failed: " + excp.getMessage());
+        }
+    }
+
     /** check the validity of input.
      * @param args input
      */
     public static void checkAllInput(String[] args) {
         switch (args[0]) {
-        case "find":
         case "add":
+            Utils.checkInput(args, Math.max(args.length, 2));
+            break;
+        case "find":
         case "commit":
         case "rm":
         case "branch":
@@ -83,9 +173,22 @@ public class Main {
             Utils.checkInput(args, 2);
             break;
         case "status":
-        case "init":
+            Utils.checkInput(args, args.length > 1
+                             && args[1].equals("--porcelain") ? 2 : 1);
+            break;
         case "log":
+            if (args.length > 1 && args[1].equals("--grep")) {
+                Utils.checkInput(args, Math.max(args.length, 3));
+            } else {
+                Utils.checkInput(args, 1);
+            }
+            break;
         case "global-log":
+            Utils.checkInput(args, args.length > 1
+                             && args[1].equals("--date-order") ? 2 : 1);
+            break;
+        case "init":
+        case "repack":
             Utils.checkInput(args, 1);
             break;
 
@@ -93,8 +196,7 @@ public class Main {
             Utils.checkCheckoutInput(args);
             break;
         default:
-            System.out.println("No command with that name exists.");
-            System.exit(0);
+            throw new GitletException("No command with that name exists.");
         }
     }
 
@@ -104,9 +206,19 @@ public class Main {
     public static Gitlet read() {
         Gitlet g = new Gitlet();
         if (new File(".gitlet").exists()
-                && new File(".gitlet/history.ser").exists()) {
-            g = Utils.readObject(new File(".gitlet/history.ser"),
-                    Gitlet.class);
+                && Gitlet.HISTORY.exists()) {
+            ObjectStore.checkLayout();
+            try {
+                g = Utils.readObject(Gitlet.HISTORY, Gitlet.class);
+            } catch (IllegalArgumentException excp) {
+                throw Utils.error("Cannot read the repository: %s",
+                                  excp.getMessage());
+            }
+            try {
+                g.replay(Journal.read());
+            } catch (IOException excp) {
+                throw Utils.error("Corrupt journal.");
+            }
         }
         return g;
     }
@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes and deletes working files for checkout and reset on a fixed pool
+ * of threads, so that decompressing blobs and writing files proceed on all
+ * cores at once. Each directory is one task: its files are handled in
+ * order by a single thread, which creates the directory first, so that no
+ * two threads contend for one directory. Deletions are all done, and the
+ * directories they empty removed, before any file is written, so a path
+ * can turn from a file into a directory or back. The first failure stops
+ * the tasks that have not finished and is reported; files already written
+ * stay written.
+ *
+ * @author Siyan Shen
+ */
+class Materializer {
+
+    /** Most threads used. */
+    static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Fewer files than this are written on the calling thread. */
+    static final int MIN_PARALLEL = 64;
+
+    /** Set once a task has failed, to stop the others. */
+    private final AtomicBoolean failed = new AtomicBoolean();
+
+    /**
+     * Make each path in PLAN hold the blob it maps to, or delete it if
+     * that is null. Return the attributes of the files written, by path.
+     */
+    static TreeMap<String, Index.Entry> apply(SortedMap<String, String> plan) {
+        return new Materializer().run(plan);
+    }
+
+    /** Carry out PLAN, as for apply. */
+    private TreeMap<String, Index.Entry> run(SortedMap<String, String> plan) {
+        TreeMap<String, List<String>> deletes = new TreeMap<>();
+        TreeMap<String, List<Map.Entry<String, String>>> writes =
+            new TreeMap<>();
+        int deleted = 0;
+        for (Map.Entry<String, String> p : plan.entrySet()) {
+            String dir = parent(p.getKey());
+            if (p.getValue() == null) {
+                deletes.computeIfAbsent(dir, k -> new ArrayList<>())
+                    .add(p.getKey());
+                deleted += 1;
+            } else {
+                writes.computeIfAbsent(dir, k -> new ArrayList<>()).add(p);
+            }
+        }
+
+        List<Callable<TreeMap<String, Index.Entry>>> tasks =
+            new ArrayList<>();
+        for (List<String> paths : deletes.values()) {
+            tasks.add(() -> delete(paths));
+        }
+        runAll(tasks, deleted);
+        TreeSet<String> emptied = new TreeSet<>(deletes.keySet());
+        for (String dir : emptied.descendingSet()) {
+            if (!dir.isEmpty()) {
+                Utils.removeEmptyParents(new File(dir, "."));
+            }
+        }
+
+        tasks.clear();
+        for (Map.Entry<String, List<Map.Entry<String, String>>> d
+                 : writes.entrySet()) {
+            tasks.add(() -> write(d.getKey(), d.getValue()));
+        }
+        return runAll(tasks, plan.size() - deleted);
+    }
+
+    /**
+     * Run TASKS, which handle COUNT files in all, and return the union of
+     * their results. They run on the pool unless there are too few files,
+     * or only one task, to make it worthwhile.
+     */
+    private TreeMap<String, Index.Entry> runAll(
+            List<Callable<TreeMap<String, Index.Entry>>> tasks, int count) {
+        TreeMap<String, Index.Entry> result = new TreeMap<>();
+        if (tasks.size() <= 1 || count < MIN_PARALLEL) {
+            for (Callable<TreeMap<String, Index.Entry>> t : tasks) {
+                try {
+                    result.putAll(t.call());
+                } catch (GitletException excp) {
+                    throw excp;
+                } catch (Exception excp) {
+                    throw Utils.error("%s", excp.getMessage());
+                }
+            }
+            return result;
+        }
+        ExecutorService pool =
+            Executors.newFixedThreadPool(Math.min(THREADS, tasks.size()));
+        CompletionService<TreeMap<String, Index.Entry>> done =
+            new ExecutorCompletionService<>(pool);
+        try {
+            for (Callable<TreeMap<String, Index.Entry>> t : tasks) {
+                done.submit(t);
+            }
+            for (int i = 0; i < tasks.size(); i += 1) {
+                result.putAll(done.take().get());
+            }
+        } catch (ExecutionException excp) {
+            failed.set(true);
+            if (excp.getCause() instanceof GitletException) {
+                throw (GitletException) excp.getCause();
+            }
+            throw Utils.error("%s", excp.getCause().getMessage());
+        } catch (InterruptedException excp) {
+            failed.set(true);
+            Thread.currentThread().interrupt();
+            throw Utils.error("Interrupted while writing files.");
+        } finally {
+            pool.shutdownNow();
+        }
+        return result;
+    }
+
+    /** Delete the files PATHS, all in one directory. */
+    private TreeMap<String, Index.Entry> delete(List<String> paths) {
+        for (String path : paths) {
+            if (failed.get()) {
+                break;
+            }
+            new File(path).delete();
+        }
+        return new TreeMap<>();
+    }
+
+    /**
+     * Write FILES, paths in the directory DIR mapped to their blobs, and
+     * return their attributes by path.
+     */
+    private TreeMap<String, Index.Entry> write(
+            String dir, List<Map.Entry<String, String>> files) {
+        TreeMap<String, Index.Entry> result = new TreeMap<>();
+        if (!dir.isEmpty()) {
+            new File(dir).mkdirs();
+        }
+        for (Map.Entry<String, String> f : files) {
+            if (failed.get() || Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            File file = new File(f.getKey());
+            try {
+                BlobStore.copyTo(f.getValue(), file);
+            } catch (GitletException excp) {
+                failed.set(true);
+                throw excp;
+            }
+            result.put(f.getKey(), Index.stat(file));
+        }
+        return result;
+    }
+
+    /** Return the directory part of PATH, or "" if it has none. */
+    private static String parent(String path) {
+        int slash = path.lastIndexOf(Tree.SEP);
+        return slash < 0 ? "" : path.substring(0, slash);
+    }
+
+}
@@ -0,0 +1,267 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * An on-disk hash table from commit messages, and from the words in them,
+ * to the commits that have them. Each key is hashed to 64 bits; the file
+ * holds a table of buckets, each the offset of the newest node of a chain,
+ * followed by the nodes, each holding the offset of the next node in its
+ * chain, a key hash and a commit id. A commit adds one node for its whole
+ * message and one per distinct word, each pushed onto the front of its
+ * bucket's chain, so a lookup follows one chain, whose length is about the
+ * number of matches. Hashes can collide, so callers check the commits they
+ * get back. A commit's nodes are appended at the end of the file and
+ * forced to the disk before any bucket is pointed at them, so whatever a
+ * crash leaves of the bucket writes, every bucket points at a complete
+ * node. Nodes a crash leaves unlinked are never reached. The node count
+ * only decides when the table is rebuilt, and nodes are always appended
+ * at the end of the file, so a count a crash leaves behind is harmless.
+ *
+ * @author Siyan Shen
+ */
+class MessageIndex {
+
+    /** File holding the index. */
+    static final File FILE = new File(".gitlet/messages");
+
+    /** Magic number at the start of FILE. */
+    static final int MAGIC = 0x474d5349;
+
+    /** Version of the format of FILE. */
+    static final int VERSION = 1;
+
+    /** Length of the header: magic, version, bucket and node counts. */
+    static final int HEADER = 16;
+
+    /** Position of the node count in the header. */
+    static final int NODES_AT = 12;
+
+    /** Length of a node: next offset, key hash and commit id. */
+    static final int NODE = 8 + 8 + Pack.ID_BYTES;
+
+    /** Number of buckets in a new index. */
+    static final int MIN_BUCKETS = 1024;
+
+    /** The table is doubled when it has more than this many nodes each. */
+    static final int LOAD = 4;
+
+    /** Offset meaning the end of a chain. */
+    static final long END = 0;
+
+    /** Prefix of the keys of whole messages. */
+    static final String EXACT = "m:";
+
+    /** Prefix of the keys of words. */
+    static final String WORD = "w:";
+
+    /** Return the words of the message MSG, lowercased, without repeats. */
+    static TreeSet<String> words(String msg) {
+        TreeSet<String> result = new TreeSet<>();
+        for (String w : msg.toLowerCase(Locale.ROOT)
+                 .split("[^\\p{L}\\p{N}]+")) {
+            if (!w.isEmpty()) {
+                result.add(w);
+            }
+        }
+        return result;
+    }
+
+    /** Return the ids of the commits that may have the message MSG. */
+    static List<String> exact(String msg) {
+        return lookup(EXACT + msg);
+    }
+
+    /** Return the ids of the commits that may contain the word WORD. */
+    static List<String> word(String word) {
+        return lookup(WORD + word.toLowerCase(Locale.ROOT));
+    }
+
+    /** Record the message of the commit C. */
+    static void add(Commit c) {
+        if (!FILE.exists()) {
+            rebuild();
+            return;
+        }
+        boolean full;
+        try (FileChannel chan = FileChannel.open(FILE.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int buckets = readInt(chan, 8);
+            int nodes = readInt(chan, NODES_AT);
+            full = nodes > LOAD * buckets;
+            if (!full) {
+                insert(chan, buckets, nodes, c);
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write message index: %s",
+                    excp.getMessage());
+        }
+        if (full) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Link nodes for the message keys of the commit C into CHAN, the open
+     * FILE, which has BUCKETS buckets and NODES nodes. The nodes are
+     * written and forced first, then the buckets, then the count.
+     */
+    private static void insert(FileChannel chan, int buckets, int nodes,
+                               Commit c) throws IOException {
+        long end = chan.size();
+        byte[] id = Utils.unhex(c.getID());
+        List<String> keys = keys(c.getMsg());
+        TreeMap<Long, Long> heads = new TreeMap<>();
+        ByteBuffer added = ByteBuffer.allocate(NODE * keys.size());
+        for (String key : keys) {
+            long h = hash(key);
+            long bucket = HEADER + 8 * Math.floorMod(h, buckets);
+            Long head = heads.get(bucket);
+            added.putLong(head != null ? head : readLong(chan, bucket))
+                .putLong(h).put(id);
+            heads.put(bucket, end + added.position() - NODE);
+        }
+        added.flip();
+        while (added.hasRemaining()) {
+            chan.write(added, end + added.position());
+        }
+        chan.force(false);
+        for (Map.Entry<Long, Long> b : heads.entrySet()) {
+            chan.write(ByteBuffer.allocate(8).putLong(0, b.getValue()),
+                       b.getKey());
+        }
+        chan.write(ByteBuffer.allocate(4).putInt(0, nodes + keys.size()),
+                   NODES_AT);
+        Durable.changed(FILE);
+    }
+
+    /**
+     * Rebuild FILE from every commit in the store, with enough buckets for
+     * them.
+     */
+    static void rebuild() {
+        List<Commit> commits = new ArrayList<>();
+        int total = 0;
+        for (String id : ObjectStore.commitIds()) {
+            Commit c = ObjectStore.readCommit(id);
+            commits.add(c);
+            total += keys(c.getMsg()).size();
+        }
+        int buckets = MIN_BUCKETS;
+        while (total > LOAD * buckets / 2) {
+            buckets *= 2;
+        }
+        long[] heads = new long[buckets];
+        ByteBuffer out = ByteBuffer.allocate(HEADER + 8 * buckets
+                                             + NODE * total);
+        out.putInt(MAGIC).putInt(VERSION).putInt(buckets).putInt(total);
+        int pos = HEADER + 8 * buckets;
+        out.position(pos);
+        for (Commit c : commits) {
+            byte[] id = Utils.unhex(c.getID());
+            for (String key : keys(c.getMsg())) {
+                long h = hash(key);
+                int b = Math.floorMod(h, buckets);
+                out.putLong(heads[b]).putLong(h).put(id);
+                heads[b] = pos;
+                pos += NODE;
+            }
+        }
+        for (int b = 0; b < buckets; b += 1) {
+            out.putLong(HEADER + 8 * b, heads[b]);
+        }
+        try {
+            Durable.write(FILE, out.array());
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write message index: %s",
+                    excp.getMessage());
+        }
+    }
+
+    /** Return the keys under which a commit with message MSG is filed. */
+    private static List<String> keys(String msg) {
+        List<String> result = new ArrayList<>();
+        result.add(EXACT + msg);
+        for (String w : words(msg)) {
+            result.add(WORD + w);
+        }
+        return result;
+    }
+
+    /**
+     * Return the ids, without repeats and in order, of the commits in the
+     * chain of KEY whose key hash is that of KEY.
+     */
+    private static List<String> lookup(String key) {
+        if (!FILE.exists()) {
+            rebuild();
+        }
+        TreeSet<String> result = new TreeSet<>();
+        try (FileChannel chan = FileChannel.open(FILE.toPath())) {
+            int buckets = readInt(chan, 8);
+            long h = hash(key);
+            long at = readLong(chan, HEADER + 8 * Math.floorMod(h, buckets));
+            ByteBuffer node = ByteBuffer.allocate(NODE);
+            byte[] id = new byte[Pack.ID_BYTES];
+            while (at != END) {
+                node.clear();
+                readFully(chan, node, at);
+                at = node.getLong(0);
+                if (node.getLong(8) == h) {
+                    node.get(16, id);
+                    result.add(Utils.hex(id));
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read message index: %s",
+                    excp.getMessage());
+        }
+        return new ArrayList<>(result);
+    }
+
+    /** Return the 64-bit FNV-1a hash of the UTF-8 bytes of KEY. */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /** Return the int at offset AT of CHAN. */
+    private static int readInt(FileChannel chan, long at) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        readFully(chan, buf, at);
+        return buf.getInt(0);
+    }
+
+    /** Return the long at offset AT of CHAN. */
+    private static long readLong(FileChannel chan, long at)
+            throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(8);
+        readFully(chan, buf, at);
+        return buf.getLong(0);
+    }
+
+    /** Fill BUF from CHAN starting at offset AT. */
+    private static void readFully(FileChannel chan, ByteBuffer buf, long at)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            if (chan.read(buf, at + buf.position()) < 0) {
+                throw Utils.error("Truncated message index.");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package gitlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of decoded objects keyed by id, bounded by the total weight of
+ * its values, usually their encoded sizes, that evicts the least recently
+ * used values first. It counts its hits and misses, which are printed on
+ * standard error at exit when the system property gitlet.cachestats is
+ * true. All methods may be called from several threads.
+ *
+ * @param <V> the type of the cached values
+ * @author Siyan Shen
+ */
+class ObjectCache<V> {
+
+    /** Name of the system property that turns on the statistics. */
+    static final String STATS = "gitlet.cachestats";
+
+    /** A cached value and its weight. */
+    private static class Slot<V> {
+        /** The value. */
+        private final V value;
+        /** Its weight. */
+        private final long weight;
+
+        /** A slot holding VALUE of weight WEIGHT. */
+        Slot(V value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /** My name, for the statistics. */
+    private final String name;
+
+    /** Upper bound on the total weight of my values. */
+    private final long capacity;
+
+    /** The values, least recently used first. */
+    private final LinkedHashMap<String, Slot<V>> slots =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Total weight of my values. */
+    private long weight;
+
+    /** Number of lookups that found a value. */
+    private long hits;
+
+    /** Number of lookups that did not. */
+    private long misses;
+
+    /** An empty cache called NAME holding values weighing up to CAPACITY. */
+    ObjectCache(String name, long capacity) {
+        this.name = name;
+        this.capacity = capacity;
+    }
+
+    /** Return the value cached for ID, or null. */
+    synchronized V get(String id) {
+        Slot<V> slot = slots.get(id);
+        if (slot == null) {
+            misses += 1;
+            return null;
+        }
+        hits += 1;
+        return slot.value;
+    }
+
+    /**
+     * Cache VALUE, of weight WEIGHT, for ID, evicting the least recently
+     * used values to make room. A value heavier than a quarter of my
+     * capacity is not cached, so one cannot flush all the others.
+     */
+    synchronized void put(String id, V value, long weight) {
+        if (weight > capacity / 4) {
+            return;
+        }
+        Slot<V> old = slots.put(id, new Slot<>(value, weight));
+        this.weight += weight - (old == null ? 0 : old.weight);
+        Iterator<Map.Entry<String, Slot<V>>> eldest =
+                slots.entrySet().iterator();
+        while (this.weight > capacity) {
+            this.weight -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+    }
+
+    /** Return the number of lookups that found a value. */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /** Return the number of lookups that did not. */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns a one-line summary of my statistics. */
+    @Override
+    public synchronized String toString() {
+        return String.format("%s cache: %d hits, %d misses, %d entries, "
+                + "%d bytes", name, hits, misses, slots.size(), weight);
+    }
+
+}
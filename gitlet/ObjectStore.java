@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Access to commit and tree objects, wherever they live: loose under
+ * .gitlet/objects and .gitlet/trees, or inside a pack. Loose objects, trees
+ * and blobs are sharded into subdirectories named by the first two hex
+ * digits of their ids, so no directory grows past a 256th of the store.
+ *
+ * @author Siyan Shen
+ */
+class ObjectStore {
+
+    /** Directory holding loose commits. */
+    static final File OBJECTS = new File(".gitlet/objects");
+
+    /** Directory holding loose trees. */
+    static final File TREES = new File(".gitlet/trees");
+
+    /** File recording the version of the repository layout. */
+    static final File VERSION = new File(".gitlet/version");
+
+    /** Version of the layout of repositories that record none. */
+    static final int UNVERSIONED = 1;
+
+    /** Layout version that introduced sharded loose objects. */
+    static final int SHARDED = 2;
+
+    /** Current layout version. */
+    static final int LAYOUT = SHARDED;
+
+    /** Upper bound on the bytes of commits and trees kept in CACHE. */
+    static final long CACHE_BYTES = 16L << 20;
+
+    /** Commits and trees decoded recently, by id. */
+    static final ObjectCache<Object> CACHE =
+            new ObjectCache<>("object", CACHE_BYTES);
+
+    /** Length of a shard directory name. */
+    static final int SHARD = 2;
+
+    /** Return the loose file for the commit ID. */
+    static File file(String id) {
+        return shard(OBJECTS, id);
+    }
+
+    /** Return the file for the object ID in the sharded directory DIR. */
+    static File shard(File dir, String id) {
+        return new File(new File(dir, id.substring(0, SHARD)),
+                id.substring(SHARD) + ".ser");
+    }
+
+    /**
+     * Return true iff the loose object FILE is stored. A file that a crash
+     * left empty, before its contents reached the disk, counts as missing,
+     * so that it is written again.
+     */
+    static boolean stored(File file) {
+        return file.length() > 0;
+    }
+
+    /** Write CONTENTS to the sharded FILE, creating its shard if needed. */
+    static void writeShard(File file, Object... contents) {
+        file.getParentFile().mkdirs();
+        Utils.writeContents(file, contents);
+    }
+
+    /**
+     * Return the ids of the loose objects in the sharded directory DIR
+     * whose ids start with PREFIX.
+     */
+    static List<String> shardIds(File dir, String prefix) {
+        List<String> result = new ArrayList<>();
+        String[] shards;
+        if (prefix.length() >= SHARD) {
+            shards = new String[] {prefix.substring(0, SHARD)};
+        } else {
+            shards = dir.list();
+            if (shards == null) {
+                return result;
+            }
+            Arrays.sort(shards);
+        }
+        for (String shard : shards) {
+            List<String> names = Utils.plainFilenamesIn(new File(dir, shard));
+            if (shard.length() != SHARD || names == null) {
+                continue;
+            }
+            for (String name : names) {
+                String id = shard + name.substring(0,
+                        Utils.UID_LENGTH - SHARD);
+                if (id.startsWith(prefix)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Record in VERSION that the layout is current. */
+    static void stamp() {
+        Utils.writeContents(VERSION, Integer.toString(LAYOUT));
+    }
+
+    /**
+     * Check that the .gitlet directory has the current layout. One made
+     * before the layout was versioned is upgraded to it first. One of any
+     * other version is refused with a message saying so rather than
+     * failing on its files.
+     */
+    static void checkLayout() {
+        int version = UNVERSIONED;
+        if (VERSION.exists()) {
+            try {
+                version = Integer.parseInt(
+                        Utils.readContentsAsString(VERSION).trim());
+            } catch (NumberFormatException excp) {
+                version = -1;
+            }
+        }
+        if (version == UNVERSIONED) {
+            Upgrade.run();
+        } else if (version != LAYOUT) {
+            throw new GitletException("This repository was made by another "
+                    + "version of Gitlet and cannot be read.");
+        }
+    }
+
+    /** Return the commit with id ID, or null if ID is null. */
+    static Commit readCommit(String id) {
+        if (id == null) {
+            return null;
+        }
+        Object cached = CACHE.get(id);
+        if (cached instanceof Commit) {
+            return (Commit) cached;
+        }
+        byte[] record = read(OBJECTS, id);
+        if (record == null) {
+            throw Utils.error("No commit with that id exists.");
+        }
+        Commit result = Commit.decode(record);
+        CACHE.put(id, result, record.length);
+        return result;
+    }
+
+    /** Write COMMIT as a loose object. */
+    static void writeCommit(Commit commit) {
+        writeShard(file(commit.getID()), commit.encode());
+    }
+
+    /**
+     * Return the tree with id ID. The tree is shared with other callers
+     * through CACHE, so it must not be modified.
+     */
+    static Tree readTree(String id) {
+        Object cached = CACHE.get(id);
+        if (cached instanceof Tree) {
+            return (Tree) cached;
+        }
+        byte[] record = read(TREES, id);
+        if (record == null) {
+            throw Utils.error("Missing tree %s.", id);
+        }
+        Tree result = Tree.decode(record);
+        CACHE.put(id, result, record.length);
+        return result;
+    }
+
+    /**
+     * Return the bytes of the object ID, loose in the sharded directory DIR
+     * or packed, or null if it is in neither.
+     */
+    private static byte[] read(File dir, String id) {
+        File loose = shard(dir, id);
+        if (loose.exists()) {
+            return Utils.readContents(loose);
+        }
+        return Pack.find(id);
+    }
+
+    /** Store TREE unless it is present already, and return its id. */
+    static String writeTree(Tree tree) {
+        byte[] bytes = tree.encode();
+        String id = Utils.sha1(bytes);
+        File loose = shard(TREES, id);
+        if (!stored(loose) && !Pack.contains(id)) {
+            writeShard(loose, bytes);
+        }
+        return id;
+    }
+
+    /** Return the ids of all commits, loose or packed. */
+    static List<String> commitIds() {
+        List<String> result = shardIds(OBJECTS, "");
+        for (String id : Pack.ids(Pack.COMMIT)) {
+            if (!file(id).exists()) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+}
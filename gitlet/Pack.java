@@ -0,0 +1,449 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A pack: many objects stored back to back in one file, plus a sorted index
+ * mapping each object id to its type, offset and length. The index is
+ * memory-mapped and searched with a 256-way fan-out table followed by a
+ * binary search, so a lookup touches only a handful of pages.
+ *
+ * @author Siyan Shen
+ */
+class Pack {
+
+    /** Directory holding packs. */
+    static final File DIR = new File(".gitlet/pack");
+
+    /** Object type of commits. */
+    static final byte COMMIT = 1;
+
+    /** Object type of blobs. */
+    static final byte BLOB = 2;
+
+    /** Object type of trees. */
+    static final byte TREE = 3;
+
+    /** Magic number at the start of a pack. */
+    static final int PACK_MAGIC = 0x4750414b;
+
+    /** Magic number at the start of an index. */
+    static final int IDX_MAGIC = 0x47494458;
+
+    /** Version of the pack and index formats. */
+    static final int VERSION = 1;
+
+    /** Length in bytes of a raw object id. */
+    static final int ID_BYTES = 20;
+
+    /** Number of fan-out buckets, one per leading id byte. */
+    static final int FANOUT = 256;
+
+    /** Length of the pack header. */
+    static final int PACK_HEADER = 12;
+
+    /** Offset of the fan-out table in an index. */
+    static final int FANOUT_START = 12;
+
+    /** Length of the index header, including the fan-out table. */
+    static final int IDX_HEADER = FANOUT_START + 4 * FANOUT;
+
+    /** Length of one index entry: id, type, offset and length. */
+    static final int ENTRY = ID_BYTES + 1 + 8 + 4;
+
+    /** Longest chain of deltas a read may have to follow. */
+    static final int MAX_DEPTH = 16;
+
+    /** Packs opened so far in this process, or null if not yet listed. */
+    private static List<Pack> packs;
+
+    /** My index, mapped into memory. */
+    private final MappedByteBuffer index;
+
+    /** My pack file, read with positional reads. */
+    private final FileChannel data;
+
+    /** Number of objects in me. */
+    private final int count;
+
+    /** The index file I was opened from. */
+    private final File idxFile;
+
+    /** Open the pack whose index is IDX. */
+    private Pack(File idx) throws IOException {
+        idxFile = idx;
+        try (FileChannel chan = FileChannel.open(idx.toPath())) {
+            index = chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+        }
+        if (index.getInt(0) != IDX_MAGIC || index.getInt(4) != VERSION) {
+            throw Utils.error("Corrupt pack index %s.", idx.getName());
+        }
+        count = index.getInt(8);
+        data = FileChannel.open(packFor(idx).toPath());
+    }
+
+    /** Return all packs in this repository. */
+    static synchronized List<Pack> all() {
+        if (packs == null) {
+            packs = new ArrayList<>();
+            File[] files = DIR.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    if (f.getName().endsWith(".idx")) {
+                        try {
+                            packs.add(new Pack(f));
+                        } catch (IOException excp) {
+                            throw Utils.error("Cannot open pack %s.",
+                                    f.getName());
+                        }
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Forget the packs opened so far, so the next lookup lists them anew. */
+    static synchronized void reload() {
+        packs = null;
+    }
+
+    /**
+     * Copy the contents of the blob ID to OUT straight from the pack file
+     * holding it, and return true, if its record there is STORED. Return
+     * false otherwise.
+     */
+    static boolean transferTo(String id, WritableByteChannel out)
+            throws IOException {
+        for (Pack p : all()) {
+            int k = p.lookup(id);
+            if (k >= 0) {
+                long offset = p.offset(k);
+                int len = p.length(k);
+                ByteBuffer tag = ByteBuffer.allocate(1);
+                if (len < 1 || p.data.read(tag, offset) < 1
+                        || tag.get(0) != BlobStore.STORED) {
+                    return false;
+                }
+                BlobStore.transfer(p.data, offset + 1, len - 1, out);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the record of the object ID from any pack, or null. */
+    static byte[] find(String id) {
+        for (Pack p : all()) {
+            int k = p.lookup(id);
+            if (k >= 0) {
+                return p.read(k);
+            }
+        }
+        return null;
+    }
+
+    /** Return true iff some pack holds the object ID. */
+    static boolean contains(String id) {
+        for (Pack p : all()) {
+            if (p.lookup(id) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the ids of all packed objects of type TYPE. */
+    static List<String> ids(byte type) {
+        List<String> result = new ArrayList<>();
+        for (Pack p : all()) {
+            for (int k = 0; k < p.count; k += 1) {
+                if (p.type(k) == type) {
+                    result.add(p.id(k));
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Return the position of ID in my index, or -1 if I lack it. */
+    int lookup(String id) {
+        byte[] key = Utils.unhex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0
+                ? 0 : index.getInt(FANOUT_START + 4 * (first - 1));
+        int hi = index.getInt(FANOUT_START + 4 * first) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(mid, key);
+            if (c == 0) {
+                return mid;
+            } else if (c < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /** Compare the id of entry K with KEY as unsigned bytes. */
+    private int compare(int k, byte[] key) {
+        int base = IDX_HEADER + k * ENTRY;
+        for (int i = 0; i < ID_BYTES; i += 1) {
+            int c = (index.get(base + i) & 0xff) - (key[i] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Return the id of entry K. */
+    String id(int k) {
+        byte[] raw = new byte[ID_BYTES];
+        index.get(IDX_HEADER + k * ENTRY, raw);
+        return Utils.hex(raw);
+    }
+
+    /** Return the type of entry K. */
+    byte type(int k) {
+        return index.get(IDX_HEADER + k * ENTRY + ID_BYTES);
+    }
+
+    /** Return the offset in my pack of entry K. */
+    long offset(int k) {
+        return index.getLong(IDX_HEADER + k * ENTRY + ID_BYTES + 1);
+    }
+
+    /** Return the length of entry K. */
+    int length(int k) {
+        return index.getInt(IDX_HEADER + k * ENTRY + ID_BYTES + 1 + 8);
+    }
+
+    /** Return the record stored for entry K. */
+    byte[] read(int k) {
+        return read(offset(k), length(k));
+    }
+
+    /** Return the LEN bytes at OFFSET in my pack. */
+    byte[] read(long offset, int len) {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        try {
+            while (buf.hasRemaining()) {
+                if (data.read(buf, offset + buf.position()) < 0) {
+                    throw Utils.error("Truncated pack.");
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot read pack: %s", excp.getMessage());
+        }
+        return buf.array();
+    }
+
+    /** Return the pack file that goes with index IDX. */
+    private static File packFor(File idx) {
+        String name = idx.getName();
+        return new File(idx.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+    }
+
+    /** Where a packed object comes from while repacking. */
+    private static class Source {
+        /** Object type. */
+        private byte type;
+        /** Loose file holding the object, or null. */
+        private File loose;
+        /** Pack holding the object, if not loose. */
+        private Pack pack;
+        /** Position in PACK. */
+        private int entry;
+    }
+
+    /**
+     * Gather every loose commit, tree and blob, along with the contents of the
+     * existing packs, into a single new pack, then remove what it replaces.
+     * Return the number of objects packed.
+     */
+    static int repack() throws IOException {
+        TreeMap<String, Source> objects = new TreeMap<>();
+        for (Pack p : all()) {
+            for (int k = 0; k < p.count; k += 1) {
+                Source s = new Source();
+                s.type = p.type(k);
+                s.pack = p;
+                s.entry = k;
+                objects.put(p.id(k), s);
+            }
+        }
+        List<File> loose = new ArrayList<>();
+        addLoose(objects, loose, ObjectStore.OBJECTS, COMMIT);
+        addLoose(objects, loose, BlobStore.BLOBS, BLOB);
+        addLoose(objects, loose, ObjectStore.TREES, TREE);
+        if (loose.isEmpty() && all().size() <= 1) {
+            return objects.size();
+        }
+
+        DIR.mkdirs();
+        String name = "pack-" + Utils.sha1(String.join("",
+                objects.keySet()));
+        File packTmp = new File(DIR, name + ".pack.tmp");
+        File idxTmp = new File(DIR, name + ".idx.tmp");
+        HashMap<String, byte[]> deltas = deltify(objects);
+        int[] fanout = new int[FANOUT];
+        long[] offsets = new long[objects.size()];
+        int[] lengths = new int[objects.size()];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        packTmp.toPath())))) {
+            out.writeInt(PACK_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(objects.size());
+            long pos = PACK_HEADER;
+            int k = 0;
+            for (String id : objects.keySet()) {
+                Source s = objects.get(id);
+                byte[] record = deltas.get(id);
+                if (record == null) {
+                    record = s.loose != null ? Utils.readContents(s.loose)
+                            : s.pack.read(s.entry);
+                    if (s.type == BLOB && record[0] == BlobStore.DELTA) {
+                        record = BlobStore.encode(BlobStore.get(id));
+                    }
+                }
+                out.write(record);
+                offsets[k] = pos;
+                lengths[k] = record.length;
+                pos += record.length;
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                k += 1;
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(
+                        idxTmp.toPath())))) {
+            out.writeInt(IDX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(objects.size());
+            int total = 0;
+            for (int b = 0; b < FANOUT; b += 1) {
+                total += fanout[b];
+                out.writeInt(total);
+            }
+            int k = 0;
+            for (String id : objects.keySet()) {
+                out.write(Utils.unhex(id));
+                out.writeByte(objects.get(id).type);
+                out.writeLong(offsets[k]);
+                out.writeInt(lengths[k]);
+                k += 1;
+            }
+        }
+
+        File packFile = new File(DIR, name + ".pack");
+        File idxFile = new File(DIR, name + ".idx");
+        Durable.move(packTmp.toPath(), packFile);
+        Durable.move(idxTmp.toPath(), idxFile);
+        Durable.flush();
+        for (Pack p : all()) {
+            if (!p.idxFile.equals(idxFile)) {
+                p.idxFile.delete();
+                packFor(p.idxFile).delete();
+            }
+        }
+        for (File f : loose) {
+            f.delete();
+            f.getParentFile().delete();
+        }
+        reload();
+        return objects.size();
+    }
+
+    /**
+     * Return records for the blobs among OBJECTS that are better stored as
+     * deltas. Versions of each file are taken newest first; the newest is
+     * kept whole and each older one becomes a delta against the version
+     * after it, unless that would make a chain longer than MAX_DEPTH.
+     * Chunked blobs are left alone: their chunks are already shared.
+     */
+    private static HashMap<String, byte[]> deltify(
+            TreeMap<String, Source> objects) {
+        List<Commit> commits = new ArrayList<>();
+        for (String id : objects.keySet()) {
+            if (objects.get(id).type == COMMIT) {
+                commits.add(ObjectStore.readCommit(id));
+            }
+        }
+        commits.sort((a, b) -> Long.compare(b.getTimestamp(),
+                a.getTimestamp()));
+        LinkedHashMap<String, LinkedHashSet<String>> versions =
+                new LinkedHashMap<>();
+        for (Commit c : commits) {
+            for (Map.Entry<String, String> e : c.getMyBlobs().entrySet()) {
+                versions.computeIfAbsent(e.getKey(),
+                        k -> new LinkedHashSet<>()).add(e.getValue());
+            }
+        }
+
+        HashMap<String, byte[]> result = new HashMap<>();
+        HashMap<String, Integer> depth = new HashMap<>();
+        for (LinkedHashSet<String> ids : versions.values()) {
+            String base = null;
+            byte[] baseContents = null;
+            for (String id : ids) {
+                if (!objects.containsKey(id) || BlobStore.chunked(id)) {
+                    continue;
+                }
+                if (depth.containsKey(id)) {
+                    base = id;
+                    baseContents = null;
+                    continue;
+                }
+                byte[] contents = BlobStore.get(id);
+                depth.put(id, 0);
+                if (base != null && depth.get(base) < MAX_DEPTH) {
+                    if (baseContents == null) {
+                        baseContents = BlobStore.get(base);
+                    }
+                    byte[] delta = BlobStore.encodeDelta(base, baseContents,
+                            contents);
+                    if (delta.length < BlobStore.encode(contents).length) {
+                        result.put(id, delta);
+                        depth.put(id, depth.get(base) + 1);
+                    }
+                }
+                base = id;
+                baseContents = contents;
+            }
+        }
+        return result;
+    }
+
+    /** Add the loose objects of type TYPE in DIR to OBJECTS and LOOSE. */
+    private static void addLoose(TreeMap<String, Source> objects,
+                                 List<File> loose, File dir, byte type) {
+        for (String id : ObjectStore.shardIds(dir, "")) {
+            Source s = new Source();
+            s.type = type;
+            s.loose = ObjectStore.shard(dir, id);
+            objects.put(id, s);
+            loose.add(s.loose);
+        }
+    }
+
+}
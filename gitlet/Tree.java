@@ -0,0 +1,178 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The contents of one directory in a commit: a sorted mapping from names to
+ * the ids of blobs or, for names ending in '/', of subtrees. Trees are
+ * content-addressed, so a directory that did not change between two commits
+ * is the same object in both, and comparisons can skip it unopened.
+ *
+ * @author Siyan Shen
+ */
+class Tree {
+
+    /** Version of the encoding written by encode. */
+    static final int FORMAT = 1;
+
+    /** Separator of path components, and suffix of subtree names. */
+    static final String SEP = "/";
+
+    /** key: entry name, with SEP appended for subtrees. val: entry id. */
+    private final TreeMap<String, String> entries;
+
+    /** An empty tree. */
+    Tree() {
+        entries = new TreeMap<>();
+    }
+
+    /** Returns my entries. */
+    TreeMap<String, String> getEntries() {
+        return entries;
+    }
+
+    /** Returns my canonical encoding. */
+    byte[] encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, String> e : entries.entrySet()) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeInt(name.length);
+                out.write(name);
+                out.write(Utils.unhex(e.getValue()));
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException excp) {
+            throw Utils.error("Internal error encoding tree.");
+        }
+    }
+
+    /** Returns the tree whose encoding is BYTES. */
+    static Tree decode(byte[] bytes) {
+        Tree result = new Tree();
+        try {
+            DataInputStream in =
+                    new DataInputStream(new ByteArrayInputStream(bytes));
+            int format = in.readUnsignedByte();
+            if (format != FORMAT) {
+                throw Utils.error("Unsupported tree format %d.", format);
+            }
+            for (int n = in.readInt(); n > 0; n -= 1) {
+                byte[] name = new byte[in.readInt()];
+                in.readFully(name);
+                byte[] id = new byte[Pack.ID_BYTES];
+                in.readFully(id);
+                result.entries.put(new String(name, StandardCharsets.UTF_8),
+                        Utils.hex(id));
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Corrupt tree.");
+        }
+        return result;
+    }
+
+    /**
+     * Returns the id of the tree made from the tree BASE, which may be
+     * null for an empty tree, by applying CHANGES, or null if the result
+     * is empty. CHANGES maps paths relative to BASE to new blob ids, or to
+     * null for paths to delete. Only the trees along changed paths are
+     * written; every other subtree keeps its id.
+     */
+    static String update(String base, SortedMap<String, String> changes) {
+        Tree tree = new Tree();
+        if (base != null) {
+            tree.entries.putAll(ObjectStore.readTree(base).entries);
+        }
+        TreeMap<String, TreeMap<String, String>> nested = new TreeMap<>();
+        for (Map.Entry<String, String> e : changes.entrySet()) {
+            String path = e.getKey();
+            int slash = path.indexOf(SEP);
+            if (slash < 0) {
+                if (e.getValue() == null) {
+                    tree.entries.remove(path);
+                } else {
+                    tree.entries.put(path, e.getValue());
+                }
+            } else {
+                nested.computeIfAbsent(path.substring(0, slash + 1),
+                    k -> new TreeMap<>()).put(path.substring(slash + 1),
+                                               e.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> e
+                 : nested.entrySet()) {
+            String sub = update(tree.entries.get(e.getKey()), e.getValue());
+            if (sub == null) {
+                tree.entries.remove(e.getKey());
+            } else {
+                tree.entries.put(e.getKey(), sub);
+            }
+        }
+        if (tree.entries.isEmpty()) {
+            return null;
+        }
+        return ObjectStore.writeTree(tree);
+    }
+
+    /**
+     * Add to OUT every file under the tree ID, which may be null, keyed by
+     * its path with PREFIX in front.
+     */
+    static void flatten(String id, String prefix, Map<String, String> out) {
+        if (id == null) {
+            return;
+        }
+        for (Map.Entry<String, String> e
+                 : ObjectStore.readTree(id).entries.entrySet()) {
+            if (e.getKey().endsWith(SEP)) {
+                flatten(e.getValue(), prefix + e.getKey(), out);
+            } else {
+                out.put(prefix + e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Add to OUT every file whose blob differs between the trees A and B,
+     * either of which may be null, keyed by its path with PREFIX in front.
+     * Each value holds the blob id in A and the blob id in B, null where
+     * the file is absent. Subtrees with equal ids are not opened.
+     */
+    static void diff(String a, String b, String prefix,
+                     Map<String, String[]> out) {
+        if (a != null && a.equals(b)) {
+            return;
+        }
+        TreeMap<String, String> left = a == null ? new TreeMap<>()
+                : ObjectStore.readTree(a).entries;
+        TreeMap<String, String> right = b == null ? new TreeMap<>()
+                : ObjectStore.readTree(b).entries;
+        TreeMap<String, String> names = new TreeMap<>(left);
+        names.putAll(right);
+        for (String name : names.keySet()) {
+            String x = left.get(name);
+            String y = right.get(name);
+            if (x != null && x.equals(y)) {
+                continue;
+            }
+            if (name.endsWith(SEP)) {
+                diff(x, y, prefix + name, out);
+            } else {
+                out.put(prefix + name, new String[] {x, y});
+            }
+        }
+    }
+
+}
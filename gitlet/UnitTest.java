@@ -5,8 +5,29 @@ import org.junit.Test;
 import java.io.File;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.stream.Stream;
 
 /** The suite of all JUnit tests for the gitlet package.
  *  @author Siyan Shen
@@ -88,4 +109,524 @@ public class UnitTest {
         TreeMap<String, String> map = new TreeMap<>();
         assertTrue(map.keySet().isEmpty());
     }
+
+    @Test
+    public void blobCodecRoundTrip() {
+        byte[] text = new byte[1000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = (byte) ('a' + i % 3);
+        }
+        byte[] encoded = BlobStore.encode(text);
+        assertEquals(BlobStore.DEFLATED, encoded[0]);
+        assertTrue(encoded.length < text.length);
+        assertArrayEquals(text, BlobStore.decode(encoded));
+
+        byte[] binary = {(byte) 0xff, 0, (byte) 0x80, 10, 13, 0};
+        assertArrayEquals(binary, BlobStore.decode(BlobStore.encode(binary)));
+    }
+
+    @Test
+    public void blobCodecStoresCompressedFormats() {
+        byte[] gzip = new byte[200];
+        gzip[0] = (byte) 0x1f;
+        gzip[1] = (byte) 0x8b;
+        byte[] encoded = BlobStore.encode(gzip);
+        assertEquals(BlobStore.STORED, encoded[0]);
+        assertArrayEquals(gzip, BlobStore.decode(encoded));
+    }
+
+    @Test
+    public void blobStoreKeepsBytesHashed() throws Exception {
+        String name = "blob-test.bin";
+        scratch(() -> {
+            byte[] noise = new byte[3 * BlobStore.BUFFER];
+            new Random(10).nextBytes(noise);
+            noise[0] = 'x';
+            Utils.writeContents(new File(name), noise);
+            String id = BlobStore.put(new File(name));
+            assertEquals(Utils.sha1(noise), id);
+            assertEquals(BlobStore.STORED, BlobStore.record(id)[0]);
+            assertArrayEquals(noise, BlobStore.get(id));
+            assertEquals(1, BlobStore.BLOBS.list().length);
+        }, name);
+    }
+
+    @Test
+    public void blobCopiesFromLooseAndPackedStores() throws Exception {
+        String out = "copy-test.bin";
+        scratch(() -> {
+            Main.execute(new Gitlet(), "init");
+            byte[] noise = new byte[5 * BlobStore.BUFFER];
+            new Random(24).nextBytes(noise);
+            String raw = BlobStore.put(noise);
+            String text = BlobStore.put("text\n".repeat(100));
+            assertEquals(BlobStore.STORED, BlobStore.record(raw)[0]);
+            assertEquals(BlobStore.DEFLATED, BlobStore.record(text)[0]);
+            for (int pass = 0; pass < 2; pass += 1) {
+                BlobStore.copyTo(raw, new File(out));
+                assertArrayEquals(noise, Utils.readContents(new File(out)));
+                BlobStore.copyTo(text, new File(out));
+                assertEquals("text\n".repeat(100),
+                             Utils.readContentsAsString(new File(out)));
+                Pack.repack();
+                assertFalse(BlobStore.file(raw).exists());
+            }
+        }, out);
+    }
+
+    @Test
+    public void hardLinkedCheckoutKeepsStoredCopies() throws Exception {
+        String f = "link-test.txt";
+        scratch(() -> {
+            System.setProperty(BlobStore.LINKS, "true");
+            try {
+                Main.execute(new Gitlet(), "init");
+                Utils.writeContents(new File(f), "linked");
+                Main.execute(Main.read(), "add", f);
+                Main.execute(Main.read(), "commit", "linked");
+                String id = Utils.sha1("linked");
+                new File(f).delete();
+                Main.execute(Main.read(), "checkout", "--", f);
+                Path shared = BlobStore.LINKED.toPath()
+                    .resolve(id.substring(0, ObjectStore.SHARD))
+                    .resolve(id.substring(ObjectStore.SHARD));
+                Path work = new File(f).toPath();
+                assertEquals(Files.getAttribute(shared, "unix:ino"),
+                             Files.getAttribute(work, "unix:ino"));
+                assertFalse(Files.getPosixFilePermissions(shared)
+                            .contains(PosixFilePermission.OWNER_WRITE));
+
+                new File(f).setWritable(true);
+                Utils.writeContents(new File(f), "edited");
+                Main.execute(Main.read(), "add", f);
+                assertEquals("linked", BlobStore.getAsString(id));
+                assertEquals("edited",
+                             BlobStore.getAsString(Utils.sha1("edited")));
+
+                Main.execute(Main.read(), "checkout", "--", f);
+                assertEquals("linked", Utils.readContentsAsString(
+                                 new File(f)));
+                assertEquals(id, Utils.sha1(shared.toFile()));
+                assertEquals(2, Files.getAttribute(shared, "unix:nlink"));
+
+                new File(f).delete();
+                BlobStore.pruneLinked();
+                assertEquals(0, BlobStore.LINKED.list().length);
+            } finally {
+                System.clearProperty(BlobStore.LINKS);
+            }
+        }, f);
+    }
+
+    @Test
+    public void deltaRoundTrip() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 500; i += 1) {
+            text.append("line number ").append(i).append('\n');
+        }
+        byte[] base = text.toString().getBytes();
+        text.insert(2000, "a brand new line\n");
+        text.replace(10, 20, "changed");
+        byte[] target = text.toString().getBytes();
+        byte[] delta = Delta.create(base, target);
+        assertTrue(delta.length < target.length / 10);
+        assertArrayEquals(target, Delta.apply(base, delta));
+        assertArrayEquals(base, Delta.apply(target,
+                Delta.create(target, base)));
+        assertArrayEquals(base, Delta.apply(new byte[0],
+                Delta.create(new byte[0], base)));
+    }
+
+    @Test
+    public void commitCodecRoundTrip() throws Exception {
+        scratch(() -> {
+            Commit c = new Commit(new Gitlet(), null, "initial commit",
+                                  true, null);
+            Commit d = Commit.decode(c.encode());
+            assertEquals(c.getID(), d.getID());
+            assertEquals(Utils.sha1(c.encode()), c.getID());
+            assertEquals("initial commit", d.getMsg());
+            assertEquals(0L, d.getTimestamp());
+            assertNull(d.getParent());
+            assertTrue(d.getMyBlobs().isEmpty());
+        });
+    }
+
+    @Test
+    public void objectCacheEvictsLeastRecentlyUsed() {
+        ObjectCache<String> cache = new ObjectCache<>("test", 100);
+        for (String id : new String[] {"a", "b", "c", "d"}) {
+            cache.put(id, id.toUpperCase(), 20);
+        }
+        assertEquals("A", cache.get("a"));
+        cache.put("e", "E", 25);
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        assertEquals("C", cache.get("c"));
+        assertEquals("E", cache.get("e"));
+        cache.put("f", "F", 26);
+        assertNull(cache.get("f"));
+        assertEquals("D", cache.get("d"));
+        cache.put("c", "C2", 25);
+        cache.put("g", "G", 20);
+        assertNull(cache.get("a"));
+        assertEquals("C2", cache.get("c"));
+        assertEquals(6, cache.hits());
+        assertEquals(3, cache.misses());
+        assertTrue(cache.toString().contains("4 entries, 90 bytes"));
+    }
+
+    @Test
+    public void chunkBoundariesSurviveInsertion() throws IOException {
+        byte[] data = new byte[3 << 20];
+        new Random(61).nextBytes(data);
+        byte[] edited = new byte[data.length + 10];
+        int at = 1 << 20;
+        System.arraycopy(data, 0, edited, 0, at);
+        System.arraycopy(data, at, edited, at + 10, data.length - at);
+        HashSet<String> before = new HashSet<>();
+        int total = 0;
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        for (byte[] c = chunker.next(); c != null; c = chunker.next()) {
+            assertTrue(c.length <= Chunker.MAX);
+            before.add(Utils.sha1(c));
+            total += c.length;
+        }
+        assertEquals(data.length, total);
+        int shared = 0;
+        int count = 0;
+        chunker = new Chunker(new ByteArrayInputStream(edited));
+        for (byte[] c = chunker.next(); c != null; c = chunker.next()) {
+            count += 1;
+            if (before.contains(Utils.sha1(c))) {
+                shared += 1;
+            }
+        }
+        assertTrue(count - shared <= 2);
+    }
+
+    @Test
+    public void daemonRequestRoundTrip() throws IOException {
+        String[] args = {"commit", "", "fix \u00e9t\u00e9 bug\n"};
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Daemon.writeArgs(out, args);
+        String[] back = Daemon.readArgs(
+            new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(Arrays.asList(args), Arrays.asList(back));
+    }
+
+    @Test
+    public void batchSplitsLikeTheShell() {
+        String[] args = Batch.split(
+            "  commit \"fix \\\"a\\\" b\"  'c d'e \"\" ");
+        assertEquals(Arrays.asList("commit", "fix \"a\" b", "c de", ""),
+                     Arrays.asList(args));
+        assertEquals(0, Batch.split(" \t").length);
+    }
+
+    @Test
+    public void batchSavesAtCheckpointsAndAtTheEnd() throws Exception {
+        String a = "batch-test-a.txt", b = "batch-test-b.txt";
+        scratch(() -> {
+            Main.execute(new Gitlet(), "init");
+            Utils.writeContents(new File(a), "a");
+            Utils.writeContents(new File(b), "b");
+            PrintStream stdout = System.out;
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            try {
+                Batch.run(new StringReader("add " + a + "\ncommit a\n"
+                        + "checkpoint\nbranch other\nadd " + b + "\n"
+                        + "checkout nosuch\ncommit b\n"));
+            } finally {
+                System.setOut(stdout);
+            }
+            ByteBuffer log = ByteBuffer.wrap(
+                Files.readAllBytes(Journal.FILE.toPath()));
+            int entries = 0;
+            for (int at = Journal.HEADER; at < log.limit();
+                 at += Journal.FRAME + log.getInt(at)) {
+                entries += 1;
+            }
+            assertEquals(2, entries);
+
+            Gitlet g = Main.read();
+            assertEquals(2, g.branchHeads().size());
+            String saved = state(g);
+            Gitlet copy = g.copy();
+            Main.run(g, "rm", b);
+            Main.run(g, "branch", "third");
+            assertEquals(saved, state(copy));
+            assertFalse(saved.equals(state(g)));
+        }, a, b);
+    }
+
+    @Test
+    public void diff3MergesSeparateHunks() {
+        String base = "a\nb\nc\nd\ne\nf\ng\n";
+        Diff3 clean = Diff3.merge(base, "a\nB\nc\nd\ne\nf\ng\n",
+                                  "a\nb\nc\nd\ne\nF\ng\nh\n");
+        assertFalse(clean.conflicted());
+        assertEquals("a\nB\nc\nd\ne\nF\ng\nh\n", clean.text());
+        Diff3 clash = Diff3.merge(base, "a\nb\nc\nX\ne\nf\ng\n",
+                                  "a\nb\nc\nY\ne\nf\nG\n");
+        assertTrue(clash.conflicted());
+        assertEquals("a\nb\nc\n<<<<<<< HEAD\nX\n=======\nY\n>>>>>>>\n"
+                     + "e\nf\nG\n", clash.text());
+    }
+
+    /** A test body run in a scratch repository. */
+    private interface Body {
+        /** Run the test. */
+        void run() throws Exception;
+    }
+
+    /**
+     * Run BODY in the current directory, then delete .gitlet and the
+     * working FILES it may have made. The repository classes work in the
+     * current directory, so it must not hold a repository already: the
+     * test fails rather than disturb it.
+     */
+    private static void scratch(Body body, String... files)
+            throws Exception {
+        File repo = new File(".gitlet");
+        if (repo.exists()) {
+            fail("Cannot run in " + repo.getAbsoluteFile().getParent()
+                 + ", which holds a repository already.");
+        }
+        Pack.reload();
+        CommitGraph.reload();
+        try {
+            body.run();
+        } finally {
+            for (String f : files) {
+                delete(new File(f));
+            }
+            delete(repo);
+            Pack.reload();
+            CommitGraph.reload();
+        }
+    }
+
+    /** Delete FILE, and everything under it if it is a directory. */
+    private static void delete(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(file.toPath())) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    /** Return the bytes left in IN. */
+    private static byte[] rest(DataInputStream in) throws IOException {
+        return in.readAllBytes();
+    }
+
+    @Test
+    public void journalKeepsOnlyCompleteEntries() throws Exception {
+        scratch(() -> {
+            new File(".gitlet").mkdir();
+            Journal.read();
+            Journal.append(new byte[] {1, 2}, new byte[] {3});
+            Journal.append(new byte[] {4}, new byte[] {5, 6});
+            Journal j = Journal.read();
+            assertEquals(Arrays.asList((byte) 1, (byte) 2, (byte) 4),
+                         bytes(rest(j.refs())));
+            assertEquals(Arrays.asList((byte) 3, (byte) 5, (byte) 6),
+                         bytes(rest(j.index())));
+
+            Path log = Journal.FILE.toPath();
+            byte[] all = Files.readAllBytes(log);
+            Files.write(log, Arrays.copyOf(all, all.length - 2));
+            j = Journal.read();
+            assertEquals(2, rest(j.refs()).length);
+            assertEquals(1, rest(j.index()).length);
+
+            Journal.append(new byte[] {7}, new byte[0]);
+            j = Journal.read();
+            assertEquals(Arrays.asList((byte) 1, (byte) 2, (byte) 7),
+                         bytes(rest(j.refs())));
+
+            all = Files.readAllBytes(log);
+            all[Journal.HEADER + Journal.FRAME + 4] ^= 1;
+            Files.write(log, all);
+            j = Journal.read();
+            assertEquals(0, rest(j.refs()).length);
+        });
+    }
+
+    /** Return the elements of DATA as a list. */
+    private static List<Byte> bytes(byte[] data) {
+        List<Byte> result = new ArrayList<>();
+        for (byte b : data) {
+            result.add(b);
+        }
+        return result;
+    }
+
+    @Test
+    public void indexJournalReplaysAndClears() throws Exception {
+        String a = Utils.sha1("a"), b = Utils.sha1("b");
+        String c = Utils.sha1("c");
+        Index idx = new Index();
+        idx.stage("a.txt", a, null);
+        idx.stage("d/b.txt", b, null);
+        idx.committed();
+        idx.stage("a.txt", c, null);
+        Index copy = new Index();
+        copy.replay(new DataInputStream(
+            new ByteArrayInputStream(idx.journal())), 0);
+        assertEquals(idx.entries().keySet(), copy.entries().keySet());
+        assertEquals(c, copy.get("a.txt").getBlob());
+        assertEquals(a, copy.get("a.txt").getBase());
+        assertEquals(b, copy.get("d/b.txt").getBase());
+
+        Index checkedOut = Index.of(null);
+        checkedOut.stage("e.txt", c, null);
+        copy.replay(new DataInputStream(
+            new ByteArrayInputStream(checkedOut.journal())), 0);
+        assertEquals(Collections.singleton("e.txt"),
+                     copy.entries().keySet());
+    }
+
+    @Test
+    public void journalReplaysOverNewerSnapshot() throws Exception {
+        String f = "journal-test-a.txt", g = "journal-test-b.txt";
+        scratch(() -> {
+            Main.execute(new Gitlet(), "init");
+            Utils.writeContents(new File(f), "one");
+            Main.execute(Main.read(), "add", f);
+            Main.execute(Main.read(), "commit", "one");
+            Main.execute(Main.read(), "branch", "other");
+            Utils.writeContents(new File(g), "two");
+            Main.execute(Main.read(), "add", g);
+            byte[] log = Files.readAllBytes(Journal.FILE.toPath());
+            assertTrue(log.length > Journal.HEADER);
+
+            Gitlet saved = Main.read();
+            String state = state(saved);
+            Gitlet.snapshot(saved);
+            assertFalse(Journal.FILE.exists());
+            assertEquals(state, state(Main.read()));
+
+            Files.write(Journal.FILE.toPath(), log);
+            assertEquals(state, state(Main.read()));
+        }, f, g);
+    }
+
+    /**
+     * Return a description of the state of G: its branches, its log and
+     * its staging area.
+     */
+    private static String state(Gitlet g) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(out, true));
+        try {
+            Main.run(g, "log");
+        } finally {
+            System.setOut(stdout);
+        }
+        StringBuilder result = new StringBuilder();
+        result.append(g.branchHeads()).append(out);
+        for (Map.Entry<String, Index.Entry> e
+                 : g.getIndex().entries().entrySet()) {
+            result.append(e.getKey()).append(' ')
+                .append(e.getValue().getBlob()).append(' ')
+                .append(e.getValue().getBase()).append('\n');
+        }
+        return result.toString();
+    }
+
+    @Test
+    public void durableWritesReplaceByRename() throws Exception {
+        Path dir = Files.createTempDirectory("durable");
+        File file = dir.resolve("state").toFile();
+        File other = dir.resolve("published").toFile();
+        try {
+            Path tmp = Durable.tmp(file);
+            assertEquals(dir, tmp.getParent());
+            assertTrue(tmp.getFileName().toString().startsWith(".state-"));
+            Files.delete(tmp);
+
+            Durable.write(file, "old".getBytes());
+            Object before = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class).fileKey();
+            try (InputStream reader = new FileInputStream(file)) {
+                Durable.write(file, "ne".getBytes(), "w".getBytes());
+                assertEquals("old", new String(reader.readAllBytes()));
+            }
+            assertEquals("new", Utils.readContentsAsString(file));
+            Object after = Files.readAttributes(file.toPath(),
+                BasicFileAttributes.class).fileKey();
+            if (before != null) {
+                assertFalse(before.equals(after));
+            }
+
+            byte[] big = "a".repeat(1 << 16).getBytes();
+            Durable.write(file, big);
+            try (InputStream reader = new FileInputStream(file)) {
+                byte[] first = reader.readNBytes(big.length / 2);
+                Durable.write(file, "b".getBytes());
+                byte[] rest = reader.readAllBytes();
+                assertEquals(big.length, first.length + rest.length);
+                assertEquals(new String(big),
+                             new String(first) + new String(rest));
+            }
+            assertEquals("b", Utils.readContentsAsString(file));
+
+            Durable.publish(other, "done".getBytes());
+            assertEquals("done", Utils.readContentsAsString(other));
+            List<String> names = Arrays.asList(dir.toFile().list());
+            names.sort(null);
+            assertEquals(Arrays.asList("published", "state"), names);
+        } finally {
+            delete(dir.toFile());
+        }
+    }
+
+    @Test
+    public void materializerSwapsFilesAndDirectories() throws Exception {
+        String root = "materializer-test";
+        scratch(() -> {
+            Main.execute(new Gitlet(), "init");
+            String one = BlobStore.put("one"), two = BlobStore.put("two");
+            TreeMap<String, String> plan = new TreeMap<>();
+            for (int d = 0; d < 4; d += 1) {
+                for (int f = 0; f < Materializer.MIN_PARALLEL / 2; f += 1) {
+                    plan.put(root + "/d" + d + "/f" + f, one);
+                }
+            }
+            plan.put(root + "/x", one);
+            TreeMap<String, Index.Entry> written = Materializer.apply(plan);
+            assertEquals(plan.keySet(), written.keySet());
+            assertEquals("one", Utils.readContentsAsString(
+                new File(root + "/d3/f5")));
+
+            TreeMap<String, String> swap = new TreeMap<>();
+            for (int f = 0; f < Materializer.MIN_PARALLEL / 2; f += 1) {
+                swap.put(root + "/d0/f" + f, null);
+            }
+            swap.put(root + "/d0", two);
+            swap.put(root + "/x", null);
+            swap.put(root + "/x/y", two);
+            Materializer.apply(swap);
+            assertTrue(new File(root + "/d0").isFile());
+            assertEquals("two", Utils.readContentsAsString(
+                new File(root + "/x/y")));
+
+            TreeMap<String, String> back = new TreeMap<>();
+            back.put(root + "/d0", null);
+            back.put(root + "/d0/f0", one);
+            back.put(root + "/x/y", null);
+            back.put(root + "/x", one);
+            Materializer.apply(back);
+            assertEquals("one", Utils.readContentsAsString(
+                new File(root + "/d0/f0")));
+            assertTrue(new File(root + "/x").isFile());
+            assertEquals(1, new File(root + "/d0").list().length);
+        }, root);
+    }
 }
@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The conversion, done once, of a repository made before the layout was
+ * versioned. Such a repository keeps each commit, with its whole mapping
+ * from file names to blob ids, as a serialized object in
+ * .gitlet/objects/ID.ser, the contents of each blob in .gitlet/blobs/ID.ser,
+ * and its branches, head and staged contents in a serialized snapshot.
+ * These are read through stand-ins for the classes that wrote them and
+ * written again as commits, trees, blobs and a staging area in the current
+ * formats. Commit ids change with the encoding; messages, dates, parents
+ * and files do not.
+ *
+ * @author Siyan Shen
+ */
+class Upgrade {
+
+    /** Version of the serialized forms written by this version. */
+    private static final long CURRENT = 1L;
+
+    /** Stand-in for a Gitlet of the unversioned layout. */
+    private static class OldGitlet implements Serializable {
+        /** Head commit id. */
+        private String head;
+        /** key: name of a staged file. val: its contents. */
+        private TreeMap<String, String> stagedFiles;
+        /** Files staged for removal. */
+        private HashSet<String> rmFiles;
+        /** Current branch. */
+        private OldBranch currentBranch;
+        /** All branches. */
+        private HashSet<OldBranch> branches;
+    }
+
+    /** Stand-in for a Commit of the unversioned layout. */
+    private static class OldCommit implements Serializable {
+        /** Id. */
+        private String myID;
+        /** Message. */
+        private String message;
+        /** State of the repository when made, unused. */
+        private OldGitlet myGit;
+        /** Date. */
+        private Date d;
+        /** Date as printed, unused. */
+        private String dateFormatted;
+        /** Parent id. */
+        private String parent;
+        /** Whether the merge making me had conflicts, unused. */
+        private boolean conflict;
+        /** Second parent id, or null. */
+        private String parent2;
+        /** key: file name. val: blob id. */
+        private TreeMap<String, String> myBlobs;
+    }
+
+    /** Stand-in for a Branch of the unversioned layout. */
+    private static class OldBranch implements Serializable {
+        /** Name. */
+        private String name;
+        /** Head commit id. */
+        private String head;
+    }
+
+    /** Stand-ins by the names of the classes they stand in for. */
+    private static final Map<String, Class<?>> STAND_INS = Map.of(
+            "gitlet.Gitlet", OldGitlet.class,
+            "gitlet.Commit", OldCommit.class,
+            "gitlet.Branch", OldBranch.class);
+
+    /**
+     * A stream reading objects written by the unversioned layout as their
+     * stand-ins, whose fields are the same. Objects written by this version,
+     * which declares its serialized forms' versions, are read as they are.
+     */
+    private static class OldInputStream extends ObjectInputStream {
+        /** A stream reading from IN. */
+        OldInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor()
+                throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            Class<?> standIn = STAND_INS.get(desc.getName());
+            if (standIn == null || desc.getSerialVersionUID() == CURRENT) {
+                return desc;
+            }
+            return ObjectStreamClass.lookup(standIn);
+        }
+    }
+
+    /**
+     * Convert the repository in .gitlet, which has the unversioned layout,
+     * to the current one. The old snapshot is replaced only once every
+     * object it refers to is converted, and the layout is stamped last, so
+     * that a conversion cut short is done again or finished on the next
+     * run.
+     */
+    static void run() {
+        Object saved = read(Gitlet.HISTORY);
+        if (saved instanceof OldGitlet) {
+            try {
+                convert((OldGitlet) saved);
+            } catch (IllegalArgumentException | ClassCastException excp) {
+                throw Utils.error("Cannot upgrade the repository: %s",
+                                  excp.getMessage());
+            }
+        }
+        CommitGraph.rebuild();
+        MessageIndex.rebuild();
+        removeOld(ObjectStore.OBJECTS);
+        removeOld(BlobStore.BLOBS);
+        ObjectStore.stamp();
+    }
+
+    /** Write the repository whose snapshot is OLD in the current layout. */
+    private static void convert(OldGitlet old) {
+        HashMap<String, String> ids = new HashMap<>();
+        HashMap<String, String> blobs = new HashMap<>();
+        File[] files = ObjectStore.OBJECTS.listFiles(Upgrade::isOld);
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                convert(name.substring(0, name.length() - ".ser".length()),
+                        ids, blobs);
+            }
+        }
+        HashSet<Branch> branches = new HashSet<>();
+        Branch current = null;
+        for (OldBranch b : old.branches) {
+            Branch branch = new Branch(b.name, convert(b.head, ids, blobs));
+            branches.add(branch);
+            Utils.writeObject(new File(".gitlet/index", b.name + ".ser"),
+                              branch);
+            if (b.name.equals(old.currentBranch.name)) {
+                current = branch;
+            }
+        }
+        String head = convert(old.head, ids, blobs);
+        Index index = Index.of(ObjectStore.readCommit(head).getTree());
+        for (Map.Entry<String, String> f : old.stagedFiles.entrySet()) {
+            index.stage(f.getKey(), BlobStore.put(f.getValue()), null);
+        }
+        for (String path : old.rmFiles) {
+            index.remove(path);
+        }
+        try {
+            Gitlet.snapshot(new Gitlet(head, branches, current, index));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot upgrade the repository: %s",
+                              excp.getMessage());
+        }
+    }
+
+    /**
+     * Write the old commit ID, and every ancestor of it not in IDS, in the
+     * current encoding, parents first, and return its new id. IDS maps the
+     * old ids of commits written to their new ids, and BLOBS the old ids of
+     * blobs stored to their new ones.
+     */
+    private static String convert(String id, HashMap<String, String> ids,
+                                  HashMap<String, String> blobs) {
+        ArrayDeque<String> todo = new ArrayDeque<>();
+        HashMap<String, OldCommit> read = new HashMap<>();
+        todo.push(id);
+        while (!todo.isEmpty()) {
+            String next = todo.peek();
+            if (ids.containsKey(next)) {
+                todo.pop();
+                continue;
+            }
+            OldCommit c = read.computeIfAbsent(next, k -> (OldCommit)
+                    read(new File(ObjectStore.OBJECTS, k + ".ser")));
+            boolean ready = true;
+            for (String p : new String[] {c.parent, c.parent2}) {
+                if (p != null && !ids.containsKey(p)) {
+                    todo.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                todo.pop();
+                read.remove(next);
+                ids.put(next, write(c, ids, blobs));
+            }
+        }
+        return ids.get(id);
+    }
+
+    /**
+     * Write the old commit C, whose parents' new ids are in IDS, and its
+     * blobs not in BLOBS, and return its new id.
+     */
+    private static String write(OldCommit c, HashMap<String, String> ids,
+                                HashMap<String, String> blobs) {
+        TreeMap<String, String> files = new TreeMap<>();
+        for (Map.Entry<String, String> f : c.myBlobs.entrySet()) {
+            files.put(f.getKey(), blobs.computeIfAbsent(f.getValue(),
+                k -> BlobStore.put(Utils.readContents(
+                        new File(BlobStore.BLOBS, k + ".ser")))));
+        }
+        Commit result = new Commit(ids.get(c.parent), ids.get(c.parent2),
+                c.message, c.d, Tree.update(null, files));
+        ObjectStore.writeCommit(result);
+        return result.getID();
+    }
+
+    /** Return the object serialized in FILE, reading old classes as such. */
+    private static Object read(File file) {
+        try (ObjectInputStream in =
+                 new OldInputStream(new FileInputStream(file))) {
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException excp) {
+            throw Utils.error("Cannot upgrade the repository: %s",
+                              excp.getMessage());
+        }
+    }
+
+    /**
+     * Return true iff FILE is one of the unversioned layout, which kept
+     * every object directly in its directory.
+     */
+    private static boolean isOld(File file) {
+        return file.isFile() && file.getName().endsWith(".ser");
+    }
+
+    /** Delete the files of the unversioned layout in DIR. */
+    private static void removeOld(File dir) {
+        File[] files = dir.listFiles(Upgrade::isOld);
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+
+}
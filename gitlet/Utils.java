@@ -1,25 +1,29 @@
 package gitlet;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.List;
 import java.util.Arrays;
-import java.util.Formatter;
 
 
 /**
@@ -62,16 +66,39 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return hex(md.digest());
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /**
+     * Returns the raw bytes of the hexadecimal SHA-1 value ID.
+     */
+    static byte[] unhex(String id) {
+        byte[] result = new byte[id.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(id.charAt(2 * i), 16) << 4
+                    | Character.digit(id.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Digits of hexadecimal numerals. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Returns the hexadecimal numeral of the raw SHA-1 value RAW.
+     */
+    static String hex(byte[] raw) {
+        char[] result = new char[2 * raw.length];
+        for (int i = 0; i < raw.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(raw[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[raw[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /* FILE DELETION */
 
     /**
@@ -82,6 +109,28 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Size of the buffer through which files are hashed. */
+    static final int BUFFER = 8192;
+
+    /**
+     * Returns the SHA-1 hash of the contents of FILE, read through a
+     * fixed-size buffer so that memory use does not depend on its size.
+     */
+    static String sha1(File file) {
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] buf = new byte[BUFFER];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                md.update(buf, 0, n);
+            }
+            return hex(md.digest());
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
     /**
      * Deletes FILE if it exists and is not a directory.  Returns true
      * if FILE was deleted, and false otherwise.  Refuses to delete FILE
@@ -138,9 +187,9 @@ class Utils {
 
     /**
      * Write the result of concatenating the bytes in CONTENTS to FILE,
-     * creating or overwriting it as needed.  Each object in CONTENTS may be
-     * either a String or a byte array.  Throws IllegalArgumentException
-     * in case of problems.
+     * creating or replacing it atomically, as by Durable.write.  Each
+     * object in CONTENTS may be either a String or a byte array.  Throws
+     * IllegalArgumentException in case of problems.
      */
     static void writeContents(File file, Object... contents) {
         try {
@@ -148,17 +197,16 @@ class Utils {
                 throw new IllegalArgumentException(
                         "cannot overwrite directory");
             }
-            BufferedOutputStream str =
-                    new BufferedOutputStream(
-                            Files.newOutputStream(file.toPath()));
-            for (Object obj : contents) {
-                if (obj instanceof byte[]) {
-                    str.write((byte[]) obj);
+            byte[][] bytes = new byte[contents.length][];
+            for (int i = 0; i < contents.length; i += 1) {
+                if (contents[i] instanceof byte[]) {
+                    bytes[i] = (byte[]) contents[i];
                 } else {
-                    str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
+                    bytes[i] = ((String) contents[i])
+                        .getBytes(StandardCharsets.UTF_8);
                 }
             }
-            str.close();
+            Durable.write(file, bytes);
         } catch (IOException | ClassCastException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
@@ -235,6 +283,54 @@ class Utils {
         return Paths.get(first.getPath(), others).toFile();
     }
 
+    /**
+     * Delete the directories above FILE, a relative path, that are left
+     * empty, innermost first.
+     */
+    static void removeEmptyParents(File file) {
+        for (File dir = file.getParentFile(); dir != null;
+             dir = dir.getParentFile()) {
+            String[] rest = dir.list();
+            if (rest == null || rest.length > 0 || !dir.delete()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the paths, relative to DIR and separated by '/', of all plain
+     * files under DIR, in order. The .gitlet directory is not entered.
+     */
+    static TreeSet<String> workingFiles(File dir) {
+        TreeSet<String> result = new TreeSet<>();
+        Path root = dir.toPath();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d,
+                        BasicFileAttributes attrs) {
+                    if (d.getFileName().toString().equals(".gitlet")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path f,
+                        BasicFileAttributes attrs) {
+                    if (attrs.isRegularFile()) {
+                        result.add(root.relativize(f).toString()
+                                   .replace(File.separatorChar, '/'));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException excp) {
+            throw error("Cannot list working files: %s", excp.getMessage());
+        }
+        return result;
+    }
+
 
     /* SERIALIZATION UTILITIES */
 
@@ -283,20 +379,17 @@ class Utils {
      */
     static void checkInput(String[] args, int expected) {
         if (args.length > expected) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
         if (!args[0].equals("init") && !(new File(".gitlet").exists())) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException(
+                    "Not in an initialized Gitlet directory.");
         }
         if (args[0].equals("commit") && (args.length < expected
                 || args[1].isEmpty())) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw new GitletException("Please enter a commit message.");
         } else if (args.length < expected) {
-            System.out.println("Incorrect operands");
-            System.exit(0);
+            throw new GitletException("Incorrect operands");
         }
 
     }
@@ -307,22 +400,19 @@ class Utils {
      */
     static void checkCheckoutInput(String[] args) {
         if (!new File(".gitlet").exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
+            throw new GitletException(
+                    "Not in an initialized Gitlet directory.");
         }
         if (args.length > 4 || args.length < 2) {
-            System.out.println("Incorrect operands.");
-            System.exit(0);
+            throw new GitletException("Incorrect operands.");
         }
         if (args.length == 3) {
             if (!args[1].equals("--")) {
-                System.out.println("Incorrect operands");
-                System.exit(0);
+                throw new GitletException("Incorrect operands");
             }
         } else if (args.length == 4) {
             if (!args[2].equals("--")) {
-                System.out.println("Incorrect operands");
-                System.exit(0);
+                throw new GitletException("Incorrect operands");
             }
         }
     }